@@ -0,0 +1,164 @@
+package me.anitasv;
+
+import com.google.ortools.Loader;
+import me.anitasv.jigsaw.*;
+import me.anitasv.sat.BranchValue;
+import me.anitasv.sat.CdclModel;
+import me.anitasv.sat.CpProtoModel;
+import me.anitasv.sat.GoogleModel;
+import me.anitasv.sat.SatModel;
+import me.anitasv.sat.SolverParameters;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the optional parts of formulation 3, and formulation 4, on the same random puzzles,
+ * printing a markdown table row per size and variant.
+ *
+ * --sizes=32x32,64x64 puzzle sizes, --repeat=[n] puzzles per size,
+ * --variants=baseline,implied_constraints to run only some,
+ * --backend=cp_sat|cp_proto|cdcl picks the model, where cdcl also reports
+ * conflicts, and --formulate_only skips solving to compare model building.
+ * The strips and cubes variants build their models while solving, which the heap and
+ * conflicts columns don't count, and transfer_matrix uses no model.
+ * Heap is what is in use right after formulating, after a GC.
+ */
+public class Benchmark {
+
+    // Puzzles stay packed, so the largest sizes fit.
+    interface PackedSolverFactory {
+        JigsawSolver newSolver(int M, int N, byte[] B);
+    }
+
+    private static final Map<String, PackedSolverFactory> VARIANTS = new LinkedHashMap<>();
+
+    private static String backend = "cp_sat";
+
+    private static SatModel newModel() {
+        return newModel(SolverParameters.DEFAULT);
+    }
+
+    private static SatModel newModel(SolverParameters parameters) {
+        return switch (backend) {
+            case "cdcl" -> new CdclModel();
+            case "cp_proto" -> new CpProtoModel(parameters);
+            default -> new GoogleModel(parameters);
+        };
+    }
+
+    private static void variant(String name, JigsawSolver3.Options options) {
+        VARIANTS.put(name, (M, N, B) -> new JigsawSolver3(M, N, B, options));
+    }
+
+    static {
+        variant("baseline", JigsawSolver3.Options.DEFAULT);
+        variant("symmetry_breaking",
+                JigsawSolver3.Options.DEFAULT.withSymmetryBreaking(true));
+        variant("implied_constraints",
+                JigsawSolver3.Options.DEFAULT.withImpliedConstraints(true));
+        variant("poke_balance",
+                JigsawSolver3.Options.DEFAULT.withPokeBalance(true));
+        variant("row_major",
+                JigsawSolver3.Options.DEFAULT.withWallOrder(JigsawSolver3.WallOrder.ROW_MAJOR));
+        variant("spiral",
+                JigsawSolver3.Options.DEFAULT.withWallOrder(JigsawSolver3.WallOrder.SPIRAL));
+        variant("spiral_true_first",
+                JigsawSolver3.Options.DEFAULT.withWallOrder(JigsawSolver3.WallOrder.SPIRAL)
+                        .withBranchValue(BranchValue.TRUE_FIRST));
+        VARIANTS.put("table", (M, N, B) -> new JigsawSolver4(M, N, B, JigsawSolver3.Options.DEFAULT));
+        VARIANTS.put("frame_first", (M, N, B) ->
+                new JigsawFrameSolver(new JigsawSolver3(M, N, B, JigsawSolver3.Options.DEFAULT)));
+        VARIANTS.put("frame_first_implied", (M, N, B) ->
+                new JigsawFrameSolver(new JigsawSolver3(M, N, B,
+                        JigsawSolver3.Options.DEFAULT.withImpliedConstraints(true))));
+        VARIANTS.put("strips", (M, N, B) -> new JigsawStripSolver(
+                new JigsawSolver3(M, N, B, JigsawSolver3.Options.DEFAULT), Benchmark::newModel));
+        // A thread per core, so a worker per model.
+        VARIANTS.put("cubes", (M, N, B) -> new JigsawCubeSolver(
+                new JigsawSolver3(M, N, B, JigsawSolver3.Options.DEFAULT),
+                () -> newModel(SolverParameters.DEFAULT.sharedBy(Runtime.getRuntime().availableProcessors()))));
+        VARIANTS.put("transfer_matrix", JigsawTransferSolver::new);
+    }
+
+    public static void main(String[] args) {
+        List<int[]> sizes = new ArrayList<>();
+        int repeat = 1;
+        boolean formulateOnly = false;
+        List<String> variants = new ArrayList<>(VARIANTS.keySet());
+        for (String arg : args) {
+            if (arg.startsWith("--sizes=")) {
+                for (String size : arg.substring("--sizes=".length()).split(",")) {
+                    String[] dims = size.split("x");
+                    sizes.add(new int[]{Integer.parseInt(dims[0]), Integer.parseInt(dims[1])});
+                }
+            } else if (arg.startsWith("--repeat=")) {
+                repeat = Integer.parseInt(arg.substring("--repeat=".length()));
+            } else if (arg.startsWith("--variants=")) {
+                variants = List.of(arg.substring("--variants=".length()).split(","));
+            } else if (arg.startsWith("--backend=")) {
+                backend = arg.substring("--backend=".length());
+            } else if (arg.equals("--cdcl")) {
+                backend = "cdcl";
+            } else if (arg.equals("--formulate_only")) {
+                formulateOnly = true;
+            }
+        }
+        if (!backend.equals("cdcl")) {
+            Loader.loadNativeLibraries();
+        }
+
+        PrintStream out = System.out;
+        System.out.println("| Size | Variant | Formulate (ms) | Heap (MB) | Solve (ms) | Conflicts |");
+        System.out.println("|------|---------|----------------|-----------|------------|-----------|");
+        for (int[] size : sizes) {
+            int M = size[0];
+            int N = size[1];
+            for (int r = 0; r < repeat; r++) {
+                byte[] B = new PackedJigsaw(M, N).shuffle().pieces();
+                for (String variant : variants) {
+                    PackedSolverFactory toSolver = VARIANTS.get(variant);
+                    if (toSolver == null) {
+                        System.out.println("Unknown variant: " + variant);
+                        continue;
+                    }
+                    JigsawSolver solver = toSolver.newSolver(M, N, B);
+                    SatModel model = solver.needsModel() ? newModel() : null;
+
+                    // Solvers print progress, only the table is wanted here.
+                    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                    long start, formulated, heap, solving, solved;
+                    List<JigsawLocation> solution;
+                    try {
+                        start = System.nanoTime();
+                        solver.formulate(model);
+                        formulated = System.nanoTime();
+                        System.gc();
+                        Runtime runtime = Runtime.getRuntime();
+                        heap = runtime.totalMemory() - runtime.freeMemory();
+                        solving = System.nanoTime();
+                        solution = formulateOnly ? List.of() : solver.solve(model);
+                        solved = System.nanoTime();
+                    } finally {
+                        System.setOut(out);
+                    }
+
+                    String conflicts = model instanceof CdclModel cdclModel
+                            ? String.valueOf(cdclModel.conflicts())
+                            : "-";
+                    System.out.println("| " + M + "x" + N +
+                            " | " + variant +
+                            (solution == null ? " (no solution)" : "") +
+                            " | " + (formulated - start) / 1_000_000 +
+                            " | " + heap / (1 << 20) +
+                            " | " + (formulateOnly ? "-" : String.valueOf((solved - solving) / 1_000_000)) +
+                            " | " + conflicts + " |");
+                }
+            }
+        }
+    }
+}
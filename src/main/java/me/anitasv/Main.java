@@ -2,13 +2,26 @@ package me.anitasv;
 
 import com.google.ortools.Loader;
 import me.anitasv.jigsaw.*;
+import me.anitasv.sat.BranchValue;
+import me.anitasv.sat.CardinalityEncoding;
+import me.anitasv.sat.CdclModel;
 import me.anitasv.sat.CnfModel;
+import me.anitasv.sat.CpProtoModel;
+import me.anitasv.sat.ExactlyOneEncoding;
+import me.anitasv.sat.ExactlyOneStrategy;
 import me.anitasv.sat.GoogleModel;
+import me.anitasv.sat.PortfolioModel;
 import me.anitasv.sat.SatModel;
+import me.anitasv.sat.SolverParameters;
+import me.anitasv.sat.SolverProtocol;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 /**
@@ -16,7 +29,11 @@ import java.util.function.Function;
  */
 public class Main {
 
-    private static void formulateAndSolve(int M, int N, SatModel model,
+    interface ModelFactory {
+        SatModel newModel(JigsawSolver jigsawSolver) throws IOException;
+    }
+
+    private static void formulateAndSolve(int M, int N, ModelFactory modelFactory,
                                           JigsawSolverFactory toSolver)
             throws IOException {
         Jigsaw jigSaw = new Jigsaw(M, N);
@@ -32,9 +49,18 @@ public class Main {
         }
 
         JigsawSolver jigsawSolver = toSolver.newSolver(M, N, B);
+        SatModel model = jigsawSolver.needsModel() ? modelFactory.newModel(jigsawSolver) : null;
 
         System.out.println("Formulating SAT problem.");
-        jigsawSolver.formulate(model);
+        try {
+            jigsawSolver.formulate(model);
+        } catch (RuntimeException e) {
+            // A piped solver is already running, don't leave it waiting for clauses.
+            if (model != null) {
+                model.stopSearch();
+            }
+            throw e;
+        }
         List<JigsawLocation> solution = jigsawSolver.solve(model);
 
         if (solution != null) {
@@ -46,12 +72,35 @@ public class Main {
 
     public static void main(String[] args) throws IOException {
         boolean randomProblem = false;
+        boolean cdcl = false;
+        boolean cpProto = false;
+        List<String> portfolio = null;
         Integer M = null, N = null;
         String satSolverPath = null;
+        SolverProtocol satSolverProtocol = SolverProtocol.MINISAT;
+        String satSolverPipe = null;
         int formulation = 3;
+        CardinalityEncoding cardinality = CardinalityEncoding.TOTALIZER;
+        ExactlyOneStrategy exactlyOne = ExactlyOneStrategy.DEFAULT;
+        SolverParameters parameters = SolverParameters.DEFAULT;
+        JigsawSolver3.Options formulationOptions = JigsawSolver3.Options.DEFAULT;
+        boolean frameFirst = false;
+        Integer stripHeight = null;
+        int stripOverlap = JigsawStripSolver.DEFAULT_OVERLAP;
+        Integer cubeBits = null;
+        boolean transferMatrix = false;
+        int cubeThreads = Runtime.getRuntime().availableProcessors();
         for (String arg : args) {
             if (arg.equals("--random")) {
                 randomProblem = true;
+            } else if (arg.equals("--cdcl")) {
+                cdcl = true;
+            } else if (arg.equals("--cp_proto")) {
+                cpProto = true;
+            } else if (arg.equals("--portfolio")) {
+                portfolio = List.of();
+            } else if (arg.startsWith("--portfolio=")) {
+                portfolio = List.of(arg.substring("--portfolio=".length()).split(","));
             } else if (arg.startsWith("--M=")) {
                 try {
                     M = Integer.parseInt(arg.substring("--M=".length()));
@@ -66,23 +115,128 @@ public class Main {
                 }
             } else if (arg.startsWith("--sat_solver_path=")) {
                 satSolverPath = arg.substring("--sat_solver_path=".length());
+            } else if (arg.equals("--sat_solver_pipe")) {
+                satSolverPipe = "counted";
+            } else if (arg.startsWith("--sat_solver_pipe=")) {
+                satSolverPipe = arg.substring("--sat_solver_pipe=".length());
+            } else if (arg.startsWith("--sat_solver_protocol=")) {
+                try {
+                    satSolverProtocol = SolverProtocol.valueOf(
+                            arg.substring("--sat_solver_protocol=".length()).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.out.println("sat_solver_protocol: " + e.getMessage());
+                }
             } else if (arg.startsWith("--formulation=")) {
                 try {
                     formulation = Integer.parseInt(arg.substring("--formulation=".length()));
                 } catch (NumberFormatException e) {
                     System.out.println("formulation: " + e.getMessage());
                 }
+            } else if (arg.startsWith("--cardinality=")) {
+                try {
+                    cardinality = CardinalityEncoding.valueOf(
+                            arg.substring("--cardinality=".length()).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.out.println("cardinality: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--exactly_one=")) {
+                try {
+                    exactlyOne = ExactlyOneStrategy.always(ExactlyOneEncoding.valueOf(
+                            arg.substring("--exactly_one=".length()).toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("exactly_one: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--workers=")) {
+                try {
+                    parameters = parameters.withNumWorkers(
+                            Integer.parseInt(arg.substring("--workers=".length())));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("workers: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--time_limit=")) {
+                try {
+                    parameters = parameters.withMaxTimeInSeconds(
+                            Double.parseDouble(arg.substring("--time_limit=".length())));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("time_limit: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--seed=")) {
+                try {
+                    parameters = parameters.withRandomSeed(
+                            Integer.parseInt(arg.substring("--seed=".length())));
+                } catch (NumberFormatException e) {
+                    System.out.println("seed: " + e.getMessage());
+                }
+            } else if (arg.equals("--log_search")) {
+                parameters = parameters.withLogSearchProgress(true);
+            } else if (arg.equals("--no_presolve")) {
+                parameters = parameters.withPresolve(false);
+            } else if (arg.equals("--symmetry_breaking")) {
+                formulationOptions = formulationOptions.withSymmetryBreaking(true);
+            } else if (arg.equals("--implied_constraints")) {
+                formulationOptions = formulationOptions.withImpliedConstraints(true);
+            } else if (arg.equals("--transfer_matrix")) {
+                transferMatrix = true;
+            } else if (arg.equals("--frame_first")) {
+                frameFirst = true;
+            } else if (arg.startsWith("--strip_height=")) {
+                try {
+                    stripHeight = Integer.parseInt(arg.substring("--strip_height=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("strip_height: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--strip_overlap=")) {
+                try {
+                    stripOverlap = Integer.parseInt(arg.substring("--strip_overlap=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("strip_overlap: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--cube_bits=")) {
+                try {
+                    cubeBits = Integer.parseInt(arg.substring("--cube_bits=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("cube_bits: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--cube_threads=")) {
+                try {
+                    cubeThreads = Integer.parseInt(arg.substring("--cube_threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.out.println("cube_threads: " + e.getMessage());
+                }
+            } else if (arg.equals("--poke_balance")) {
+                formulationOptions = formulationOptions.withPokeBalance(true);
+            } else if (arg.startsWith("--wall_order=")) {
+                try {
+                    formulationOptions = formulationOptions.withWallOrder(JigsawSolver3.WallOrder.valueOf(
+                            arg.substring("--wall_order=".length()).toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("wall_order: " + e.getMessage());
+                }
+            } else if (arg.startsWith("--branch_value=")) {
+                try {
+                    formulationOptions = formulationOptions.withBranchValue(BranchValue.valueOf(
+                            arg.substring("--branch_value=".length()).toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("branch_value: " + e.getMessage());
+                }
             }
         }
 
 
+        JigsawSolver3.Options options3 = formulationOptions;
         JigsawSolverFactory jigsawSolverFactory = switch (formulation) {
             case 1 -> JigsawSolver1::new;
             case 2 -> JigsawSolver2::new;
-            case 3 -> JigsawSolver3::new;
+            case 3 -> (rows, cols, pieces) -> new JigsawSolver3(rows, cols, pieces, options3);
+            case 4 -> (rows, cols, pieces) -> new JigsawSolver4(rows, cols, pieces, options3);
             default -> null;
         }
                 ;
+        if (frameFirst && (formulation == 3 || formulation == 4)) {
+            JigsawSolverFactory wholeFactory = jigsawSolverFactory;
+            jigsawSolverFactory = (rows, cols, pieces) ->
+                    new JigsawFrameSolver((JigsawSolver3) wholeFactory.newSolver(rows, cols, pieces));
+        }
         if (jigsawSolverFactory == null) {
             System.out.println("Unsupported formulation: " + formulation);
             System.exit(1);
@@ -101,19 +255,121 @@ public class Main {
 
 
         if (randomProblem && M != null && N != null) {
-            SatModel model;
+            String title = "Jigsaw " + M + "x" + N;
+            String fileName = "jig_rand_" + M + "x" + N + ".";
+            String solverPath = satSolverPath;
+            SolverProtocol protocol = satSolverProtocol;
+            CardinalityEncoding cardinalityEncoding = cardinality;
+            ExactlyOneStrategy exactlyOneStrategy = exactlyOne;
+            boolean cubes = !transferMatrix && stripHeight == null && cubeBits != null
+                    && (formulation == 3 || formulation == 4);
+            // Cube threads each solve a model of their own at once, they share the cores.
+            SolverParameters solverParameters = cubes && cubeThreads > 0
+                    ? parameters.sharedBy(cubeThreads)
+                    : parameters;
+            ModelFactory modelFactory;
 
-            if (satSolverPath == null) {
+            if (transferMatrix) {
+                System.out.println("Using transfer matrix search, without a SAT model.");
+                modelFactory = jigsawSolver -> null;
+            } else if (portfolio != null) {
+                List<String> portfolioPaths = portfolio;
+                System.out.println("Racing CP-SAT, CDCL and " + portfolioPaths.size() + " DIMACS solvers.");
+                Loader.loadNativeLibraries();
+                modelFactory = jigsawSolver -> {
+                    Map<String, SatModel> models = new LinkedHashMap<>();
+                    models.put("cp-sat", new GoogleModel(solverParameters));
+                    models.put("cdcl", new CdclModel());
+                    for (String path : portfolioPaths) {
+                        models.put(path, new CnfModel(title, fileName, path, protocol,
+                                cardinalityEncoding, exactlyOneStrategy));
+                    }
+                    return new PortfolioModel(models);
+                };
+            } else if (cpProto) {
+                System.out.println("Using Google OR Tools through CpModelProto.");
+                Loader.loadNativeLibraries();
+                modelFactory = jigsawSolver -> new CpProtoModel(solverParameters);
+            } else if (cdcl) {
+                System.out.println("Using in process CDCL solver.");
+                modelFactory = jigsawSolver -> new CdclModel();
+            } else if (satSolverPath == null) {
                 System.out.println("Argument --sat_solver_path=[path] missing, using Google OR Tools.");
                 Loader.loadNativeLibraries();
-                model = new GoogleModel();
+                modelFactory = jigsawSolver -> new GoogleModel(solverParameters);
+            } else if (satSolverPipe == null) {
+                modelFactory = jigsawSolver -> new CnfModel(title,
+                        fileName,
+                        solverPath,
+                        protocol,
+                        cardinalityEncoding,
+                        exactlyOneStrategy);
+            } else if (satSolverPipe.equals("counted")) {
+                modelFactory = jigsawSolver -> {
+                    System.out.println("Counting clauses.");
+                    CnfModel counter = CnfModel.counting(cardinalityEncoding, exactlyOneStrategy);
+                    jigsawSolver.formulate(counter);
+                    return CnfModel.piped(title, solverPath, protocol,
+                            cardinalityEncoding, exactlyOneStrategy,
+                            counter.numVariables(), counter.numClauses());
+                };
+            } else if (satSolverPipe.equals("headerless")) {
+                modelFactory = jigsawSolver -> CnfModel.piped(title, solverPath, protocol,
+                        cardinalityEncoding, exactlyOneStrategy,
+                        -1, -1);
             } else {
-                System.out.println("Formulation 3 is not supported in cnf model yet.");
-                model = new CnfModel("Jigsaw " + M + "x" + N,
-                        "jig_rand_" + M + "x" + N + ".",
-                        satSolverPath);
+                System.out.println("Unsupported sat_solver_pipe: " + satSolverPipe);
+                System.exit(1);
+                return;
+            }
+            ModelFactory models = modelFactory;
+            Supplier<SatModel> newModel = () -> {
+                try {
+                    return models.newModel(null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            if (transferMatrix) {
+                if (Math.min(M, N) > JigsawTransferSolver.MAX_WIDTH) {
+                    System.out.println("Transfer matrix needs a side of at most "
+                            + JigsawTransferSolver.MAX_WIDTH + " cells.");
+                    System.exit(1);
+                }
+                double maxTime = parameters.maxTimeInSeconds();
+                jigsawSolverFactory = (rows, cols, pieces) -> new JigsawTransferSolver(rows, cols, pieces, maxTime);
+            } else if (stripHeight != null) {
+                if (satSolverPipe != null) {
+                    System.out.println("Strips need a model per strip, unsupported with --sat_solver_pipe.");
+                    System.exit(1);
+                }
+                if ((formulation != 3 && formulation != 4) || frameFirst || options3.symmetryBreaking()) {
+                    System.out.println("Strips need --formulation=3 or 4, and no --frame_first"
+                            + " or --symmetry_breaking.");
+                    System.exit(1);
+                }
+                JigsawSolverFactory wholeFactory = jigsawSolverFactory;
+                int height = stripHeight;
+                int overlap = stripOverlap;
+                jigsawSolverFactory = (rows, cols, pieces) -> new JigsawStripSolver(
+                        (JigsawSolver3) wholeFactory.newSolver(rows, cols, pieces), height, overlap, newModel);
+            } else if (cubes) {
+                if (satSolverPath != null || portfolio != null || frameFirst) {
+                    System.out.println("Cubes need a model per thread: --cdcl, --cp_proto or OR Tools,"
+                            + " and no --frame_first.");
+                    System.exit(1);
+                }
+                if (cubeBits < 0 || cubeBits > 30 || cubeThreads < 1) {
+                    System.out.println("Cubes need 0 <= --cube_bits <= 30 and --cube_threads >= 1.");
+                    System.exit(1);
+                }
+                JigsawSolverFactory wholeFactory = jigsawSolverFactory;
+                int bits = cubeBits;
+                int threads = cubeThreads;
+                jigsawSolverFactory = (rows, cols, pieces) -> new JigsawCubeSolver(
+                        (JigsawSolver3) wholeFactory.newSolver(rows, cols, pieces), bits, threads, newModel);
             }
-            formulateAndSolve(M, N, model, jigsawSolverFactory);
+            formulateAndSolve(M, N, modelFactory, jigsawSolverFactory);
         } else {
             System.exit(1);
         }
@@ -6,7 +6,14 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import me.anitasv.jigsaw.*;
+import me.anitasv.sat.BranchValue;
+import me.anitasv.sat.CdclModel;
+import me.anitasv.sat.CnfModel;
+import me.anitasv.sat.CpProtoModel;
 import me.anitasv.sat.GoogleModel;
+import me.anitasv.sat.PortfolioModel;
+import me.anitasv.sat.SatModel;
+import me.anitasv.sat.SolverParameters;
 
 import java.io.*;
 import java.net.InetSocketAddress;
@@ -19,10 +26,15 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Server {
 
+    // External DIMACS solvers raced by solver=portfolio, from --portfolio=path,...
+    private static List<String> portfolioSolverPaths = List.of();
+
     static void writePlainText(HttpExchange exchange, String plainText, int statusCode)
             throws IOException {
         byte[] plainTextBytes = plainText.getBytes(StandardCharsets.UTF_8);
@@ -136,6 +148,42 @@ public class Server {
         return charset;
     }
 
+    /**
+     * Solver tuning from the workers, time_limit, seed, log and presolve
+     * query parameters, defaults for the ones left out.
+     */
+    static SolverParameters solverParameters(Map<String, String> query) {
+        SolverParameters parameters = SolverParameters.DEFAULT;
+        if (query.get("workers") != null) {
+            parameters = parameters.withNumWorkers(Integer.parseInt(query.get("workers")));
+        }
+        if (query.get("time_limit") != null) {
+            parameters = parameters.withMaxTimeInSeconds(Double.parseDouble(query.get("time_limit")));
+        }
+        if (query.get("seed") != null) {
+            parameters = parameters.withRandomSeed(Integer.parseInt(query.get("seed")));
+        }
+        if (query.containsKey("log")) {
+            parameters = parameters.withLogSearchProgress(!"false".equals(query.get("log")));
+        }
+        if (query.get("presolve") != null) {
+            parameters = parameters.withPresolve(Boolean.parseBoolean(query.get("presolve")));
+        }
+        return parameters;
+    }
+
+    static SatModel portfolioModel(int M, int N, SolverParameters parameters)
+            throws IOException {
+        Map<String, SatModel> models = new LinkedHashMap<>();
+        models.put("cp-sat", new GoogleModel(parameters));
+        models.put("cdcl", new CdclModel());
+        for (String path : portfolioSolverPaths) {
+            models.put(path, new CnfModel("Jigsaw " + M + "x" + N,
+                    "jig_" + M + "x" + N + ".", path));
+        }
+        return new PortfolioModel(models);
+    }
+
     static class JigsawHandler implements HttpHandler {
 
         @Override
@@ -207,12 +255,101 @@ public class Server {
                     return;
                 }
 
-                JigsawSolver solver = new JigsawSolver3(M, N, B);
-                GoogleModel model = new GoogleModel();
+                SolverParameters parameters;
+                try {
+                    parameters = solverParameters(query);
+                } catch (IllegalArgumentException e) {
+                    writePlainText(exchange, "Invalid solver parameters: " + e.getMessage(), 400);
+                    return;
+                }
+
+                JigsawSolver3.Options options = JigsawSolver3.Options.DEFAULT
+                        .withSymmetryBreaking(Boolean.parseBoolean(query.get("symmetry_breaking")))
+                        .withImpliedConstraints(Boolean.parseBoolean(query.get("implied_constraints")))
+                        .withPokeBalance(Boolean.parseBoolean(query.get("poke_balance")));
+                try {
+                    if (query.get("wall_order") != null) {
+                        options = options.withWallOrder(JigsawSolver3.WallOrder.valueOf(
+                                query.get("wall_order").toUpperCase()));
+                    }
+                    if (query.get("branch_value") != null) {
+                        options = options.withBranchValue(BranchValue.valueOf(
+                                query.get("branch_value").toUpperCase()));
+                    }
+                } catch (IllegalArgumentException e) {
+                    writePlainText(exchange, "Invalid search order: " + e.getMessage(), 400);
+                    return;
+                }
+                JigsawSolver3 formulation = "4".equals(query.get("formulation"))
+                        ? new JigsawSolver4(M, N, B, options)
+                        : new JigsawSolver3(M, N, B, options);
+                String solverName = String.valueOf(query.get("solver"));
+                Function<SolverParameters, SatModel> modelWith = tuning -> switch (solverName) {
+                    case "cdcl" -> new CdclModel();
+                    case "cp_proto" -> new CpProtoModel(tuning);
+                    case "portfolio" -> {
+                        try {
+                            yield portfolioModel(M, N, tuning);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    case "transfer_matrix" -> null;
+                    default -> new GoogleModel(tuning);
+                };
+                Supplier<SatModel> newModel = () -> modelWith.apply(parameters);
+                JigsawSolver solver = Boolean.parseBoolean(query.get("frame_first"))
+                        ? new JigsawFrameSolver(formulation)
+                        : formulation;
+                if (solverName.equals("transfer_matrix")) {
+                    try {
+                        solver = new JigsawTransferSolver(M, N, B, parameters.maxTimeInSeconds());
+                    } catch (IllegalArgumentException e) {
+                        writePlainText(exchange, "Invalid transfer matrix: " + e.getMessage(), 400);
+                        return;
+                    }
+                } else if (query.get("strip_height") != null) {
+                    if (Boolean.parseBoolean(query.get("frame_first"))) {
+                        writePlainText(exchange, "Strips are not supported with frame_first", 400);
+                        return;
+                    }
+                    try {
+                        int overlap = query.get("strip_overlap") != null
+                                ? Integer.parseInt(query.get("strip_overlap"))
+                                : JigsawStripSolver.DEFAULT_OVERLAP;
+                        solver = new JigsawStripSolver(formulation, Integer.parseInt(query.get("strip_height")),
+                                overlap, newModel);
+                    } catch (IllegalArgumentException e) {
+                        writePlainText(exchange, "Invalid strips: " + e.getMessage(), 400);
+                        return;
+                    }
+                } else if (query.get("cube_bits") != null) {
+                    if (solverName.equals("portfolio")) {
+                        writePlainText(exchange, "Cubes are not supported with solver=portfolio", 400);
+                        return;
+                    }
+                    if (Boolean.parseBoolean(query.get("frame_first"))) {
+                        writePlainText(exchange, "Cubes are not supported with frame_first", 400);
+                        return;
+                    }
+                    try {
+                        // No more threads than cores, and the cores shared between their models.
+                        int cores = Runtime.getRuntime().availableProcessors();
+                        int threads = query.get("cube_threads") != null
+                                ? Math.min(Integer.parseInt(query.get("cube_threads")), cores)
+                                : cores;
+                        solver = new JigsawCubeSolver(formulation, Integer.parseInt(query.get("cube_bits")),
+                                threads, () -> modelWith.apply(parameters.sharedBy(threads)));
+                    } catch (IllegalArgumentException e) {
+                        writePlainText(exchange, "Invalid cubes: " + e.getMessage(), 400);
+                        return;
+                    }
+                }
+                SatModel model = solver.needsModel() ? newModel.get() : null;
                 solver.formulate(model);
                 List<JigsawLocation> solution = solver.solve(model);
 
-                JigsawCanonical jigsawCanonical = new JigsawCanonical();
+                JigsawCanonical jigsawCanonical = JigsawCanonical.get();
                 List<Integer> canonicals = new ArrayList<>();
                 for (JigsawPiece piece : B) {
                     canonicals.add(jigsawCanonical.getCanonicalIndex(piece));
@@ -242,6 +379,11 @@ public class Server {
     }
 
     public static void main(String[] args) throws IOException {
+        for (String arg : args) {
+            if (arg.startsWith("--portfolio=")) {
+                portfolioSolverPaths = List.of(arg.substring("--portfolio=".length()).split(","));
+            }
+        }
         Loader.loadNativeLibraries();
 
         HttpServer httpServer = HttpServer.create(
@@ -0,0 +1,81 @@
+package me.anitasv.algo;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link IntDisjointSet} which many threads can union and find on at once,
+ * without locks.
+ *
+ * A root is only ever linked by a compare and set of its own parent from
+ * itself, so two threads can't both link it. Roots are linked by index, the
+ * smaller under the larger, instead of by rank: every parent is larger than
+ * its child, so there can be no cycle whatever order the links land in.
+ * Path halving is a compare and set too, losing that race only means the
+ * path was shortened by someone else.
+ */
+public class ConcurrentIntDisjointSet {
+
+    private final AtomicIntegerArray parent;
+
+    public ConcurrentIntDisjointSet(int size) {
+        this.parent = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            parent.set(i, i);
+        }
+    }
+
+    public int find(int x) {
+        while (true) {
+            int p = parent.get(x);
+            if (p == x) {
+                return x;
+            }
+            int grandparent = parent.get(p);
+            if (grandparent != p) {
+                parent.compareAndSet(x, p, grandparent);
+            }
+            x = grandparent;
+        }
+    }
+
+    /**
+     * @return false if a and b were already in the same set.
+     */
+    public boolean union(int a, int b) {
+        while (true) {
+            int aRoot = find(a);
+            int bRoot = find(b);
+            if (aRoot == bRoot) {
+                return false;
+            }
+            int child = Math.min(aRoot, bRoot);
+            int root = Math.max(aRoot, bRoot);
+            if (parent.compareAndSet(child, child, root)) {
+                return true;
+            }
+            // child got linked by someone else meanwhile, retry from the new roots.
+        }
+    }
+
+    /**
+     * Whether a and b are in the same set. Only a snapshot when other threads
+     * are still linking, but a true answer stays true.
+     */
+    public boolean connected(int a, int b) {
+        while (true) {
+            int aRoot = find(a);
+            int bRoot = find(b);
+            if (aRoot == bRoot) {
+                return true;
+            }
+            // aRoot may have been linked after it was found, only trust a root which still is one.
+            if (parent.get(aRoot) == aRoot) {
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        return parent.length();
+    }
+}
@@ -0,0 +1,66 @@
+package me.anitasv.algo;
+
+/**
+ * Disjoint sets over 0 .. size - 1, linking roots by rank and halving paths
+ * on find, so trees stay shallow without recursion.
+ */
+public class IntDisjointSet {
+
+    private final int[] parent;
+    private final byte[] rank;
+    private int sets;
+
+    public IntDisjointSet(int size) {
+        this.parent = new int[size];
+        this.rank = new byte[size];
+        this.sets = size;
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+        }
+    }
+
+    public int find(int x) {
+        while (parent[x] != x) {
+            // Point x at its grandparent, and continue from there.
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * @return false if a and b were already in the same set.
+     */
+    public boolean union(int a, int b) {
+        int aRoot = find(a);
+        int bRoot = find(b);
+        if (aRoot == bRoot) {
+            return false;
+        }
+        if (rank[aRoot] < rank[bRoot]) {
+            parent[aRoot] = bRoot;
+        } else if (rank[aRoot] > rank[bRoot]) {
+            parent[bRoot] = aRoot;
+        } else {
+            parent[bRoot] = aRoot;
+            rank[aRoot]++;
+        }
+        sets--;
+        return true;
+    }
+
+    public boolean connected(int a, int b) {
+        return find(a) == find(b);
+    }
+
+    public int size() {
+        return parent.length;
+    }
+
+    /**
+     * Number of disjoint sets.
+     */
+    public int sets() {
+        return sets;
+    }
+}
@@ -1,95 +1,123 @@
 package me.anitasv.jigsaw;
 
-import me.anitasv.algo.DisjointSet;
+import me.anitasv.algo.IntDisjointSet;
 
 import java.math.BigInteger;
 import java.util.*;
 
+/**
+ * Numbers the pieces up to rotation, border classes first. The classes never
+ * change, so there is one shared instance, see {@link #get()}.
+ */
 public class JigsawCanonical {
 
-    private final Map<List<JigsawPoke>, Integer> pieceIndex = new HashMap<>();
+    private static final JigsawCanonical INSTANCE = new JigsawCanonical();
+
+    // pieceIndex[code(pokes)] is the class of a piece, for all 3^SIDES pieces.
+    private final int[] pieceIndex;
+    private final List<List<JigsawPoke>> representatives = new ArrayList<>();
     private final int size;
     private final int interiorSize;
     private final int borderSize;
 
-    public JigsawCanonical() {
-        DisjointSet<List<JigsawPoke>> borderCanonicals = new DisjointSet<>();
-        DisjointSet<List<JigsawPoke>> interiorCanonicals = new DisjointSet<>();
+    public static JigsawCanonical get() {
+        return INSTANCE;
+    }
 
+    private JigsawCanonical() {
         JigsawPoke[] pokes = JigsawPoke.values();
         int pokeCount = pokes.length;
         // It just sucks there is no math.intPow()
         int totalCubes = BigInteger.valueOf(pokeCount).pow(Jigsaw.SIDES).intValue();
+        pieceIndex = new int[totalCubes];
 
+        // Rotating keeps the flats, so border and interior pieces never share a class.
+        IntDisjointSet rotations = new IntDisjointSet(totalCubes);
+        JigsawPoke[][] pieces = new JigsawPoke[totalCubes][];
+        boolean[] hasFlat = new boolean[totalCubes];
         for (int i = 0; i < totalCubes; i++) {
-            List<JigsawPoke> side = new ArrayList<>();
+            JigsawPoke[] side = new JigsawPoke[Jigsaw.SIDES];
             int elem = i;
-            boolean hasFlat = false;
             for (int j = 0; j < Jigsaw.SIDES; j++) {
                 JigsawPoke poke = pokes[elem % pokeCount];
-                side.add(poke);
+                side[j] = poke;
                 elem = elem / pokeCount;
                 if (poke == JigsawPoke.FLAT) {
-                    hasFlat = true;
+                    hasFlat[i] = true;
                 }
             }
-            if (hasFlat) {
-                borderCanonicals.add(side);
-            } else {
-                interiorCanonicals.add(side);
-            }
-        }
-
-        for (List<JigsawPoke> str : borderCanonicals.ogElements()) {
-            for (int i = 0; i < Jigsaw.SIDES; i++) {
-                List<JigsawPoke> rotated = new ArrayList<>();
-                rotated.addAll(str.subList(i, Jigsaw.SIDES));
-                rotated.addAll(str.subList(0, i));
-                borderCanonicals.union(str, rotated);
-            }
+            pieces[i] = side;
         }
 
-        for (List<JigsawPoke> str : interiorCanonicals.ogElements()) {
-            for (int i = 0; i < Jigsaw.SIDES; i++) {
-                List<JigsawPoke> rotated = new ArrayList<>();
-                rotated.addAll(str.subList(i, Jigsaw.SIDES));
-                rotated.addAll(str.subList(0, i));
-                interiorCanonicals.union(str, rotated);
+        for (int i = 0; i < totalCubes; i++) {
+            for (int r = 1; r < Jigsaw.SIDES; r++) {
+                JigsawPoke[] rotated = new JigsawPoke[Jigsaw.SIDES];
+                for (int j = 0; j < Jigsaw.SIDES; j++) {
+                    rotated[j] = pieces[i][(j + r) % Jigsaw.SIDES];
+                }
+                rotations.union(i, code(rotated));
             }
         }
 
-        Map<List<JigsawPoke>, Integer> knownRoots = new HashMap<>();
+        // Border classes first, each numbered and represented by its smallest code.
+        int[] rootIndex = new int[totalCubes];
+        Arrays.fill(rootIndex, -1);
         int nextIndex = 0;
-
-        for (List<JigsawPoke> str : borderCanonicals.ogElements()) {
-            List<JigsawPoke> canonical = borderCanonicals.findCanonical(str);
-            Integer currentIndex = knownRoots.get(canonical);
-            if (currentIndex == null) {
-                currentIndex = nextIndex;
-                knownRoots.put(canonical, currentIndex);
-                nextIndex++;
+        for (int i = 0; i < totalCubes; i++) {
+            if (hasFlat[i]) {
+                int root = rotations.find(i);
+                if (rootIndex[root] == -1) {
+                    rootIndex[root] = nextIndex++;
+                    representatives.add(List.of(pieces[i]));
+                }
+                pieceIndex[i] = rootIndex[root];
             }
-            pieceIndex.put(str, currentIndex);
         }
         borderSize = nextIndex;
 
-        for (List<JigsawPoke> str : interiorCanonicals.ogElements()) {
-            List<JigsawPoke> canonical = interiorCanonicals.findCanonical(str);
-            Integer currentIndex = knownRoots.get(canonical);
-            if (currentIndex == null) {
-                currentIndex = nextIndex;
-                knownRoots.put(canonical, currentIndex);
-                nextIndex++;
+        for (int i = 0; i < totalCubes; i++) {
+            if (!hasFlat[i]) {
+                int root = rotations.find(i);
+                if (rootIndex[root] == -1) {
+                    rootIndex[root] = nextIndex++;
+                    representatives.add(List.of(pieces[i]));
+                }
+                pieceIndex[i] = rootIndex[root];
             }
-            pieceIndex.put(str, currentIndex);
         }
 
         size = nextIndex;
         interiorSize = size - borderSize;
     }
 
+    /**
+     * The pokes as a number in base 3, side 0 being the least significant
+     * digit and the digit of a poke its ordinal.
+     */
+    public static int code(JigsawPoke[] pokes) {
+        int code = 0;
+        for (int s = Jigsaw.SIDES - 1; s >= 0; s--) {
+            code = code * 3 + pokes[s].ordinal();
+        }
+        return code;
+    }
+
     public int getCanonicalIndex(JigsawPiece sides) {
-        return pieceIndex.get(Arrays.asList(sides.pokes));
+        return pieceIndex[code(sides.pokes)];
+    }
+
+    /**
+     * Class of the piece with the given {@link #code}.
+     */
+    public int getCanonicalIndex(int code) {
+        return pieceIndex[code];
+    }
+
+    /**
+     * Some piece of the canonical class, every other is a rotation of it.
+     */
+    public JigsawPiece representative(int index) {
+        return new JigsawPiece(representatives.get(index).toArray(new JigsawPoke[0]));
     }
 
     public int size() {
@@ -105,7 +133,7 @@ public class JigsawCanonical {
     }
 
     public static void main(String[] args) {
-        JigsawCanonical canonical = new JigsawCanonical();
+        JigsawCanonical canonical = JigsawCanonical.get();
         System.out.println(canonical.interiorSize());
         System.out.println(canonical.borderSize());
     }
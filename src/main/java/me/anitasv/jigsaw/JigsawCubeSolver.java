@@ -0,0 +1,204 @@
+package me.anitasv.jigsaw;
+
+import me.anitasv.sat.IncrementalSatModel;
+import me.anitasv.sat.SatAssignment;
+import me.anitasv.sat.SatModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Cube and conquer: splits the search on cubeBits walls across the middle
+ * of the puzzle into 2^cubeBits cubes, one per way of setting those walls,
+ * and solves the cubes in parallel. The first cube with a solution wins and
+ * the rest are stopped. There is no solution only when every cube was
+ * proved to have none, a cube given up on, say on its time limit, leaves
+ * the search without an answer.
+ *
+ * Each of the threads formulates the puzzle into a model of its own from
+ * newModel. An {@link IncrementalSatModel} is formulated once and solves
+ * its cubes as assumptions, any other model is formulated again per cube
+ * with the cube as unit clauses.
+ *
+ * formulate() does nothing, the models are formulated while solving.
+ */
+public class JigsawCubeSolver implements JigsawSolver {
+
+    public static final int DEFAULT_CUBE_BITS = 6;
+
+    private final JigsawSolver3 full;
+    private final int cubeBits;
+    private final int threads;
+    private final Supplier<SatModel> newModel;
+
+    public JigsawCubeSolver(JigsawSolver3 full, Supplier<SatModel> newModel) {
+        this(full, DEFAULT_CUBE_BITS, Runtime.getRuntime().availableProcessors(), newModel);
+    }
+
+    public JigsawCubeSolver(JigsawSolver3 full, int cubeBits, int threads, Supplier<SatModel> newModel) {
+        if (cubeBits < 0 || cubeBits > 30 || threads < 1) {
+            throw new IllegalArgumentException("Need 0 <= cube bits <= 30 and threads >= 1, got "
+                    + cubeBits + " and " + threads);
+        }
+        this.full = full;
+        this.cubeBits = cubeBits;
+        this.threads = threads;
+        this.newModel = newModel;
+    }
+
+    @Override
+    public void formulate(SatModel model) {
+    }
+
+    @Override
+    public boolean needsModel() {
+        return false;
+    }
+
+    /**
+     * Walls, as {m, n, side}, crossing the middle of the longer side, as
+     * evenly spaced as there are bits.
+     */
+    private List<int[]> cubeWalls() {
+        int M = full.M;
+        int N = full.N;
+        List<int[]> cut = new ArrayList<>();
+        if (M >= N && M > 1) {
+            for (int n = 0; n < N; n++) {
+                cut.add(new int[]{M / 2 - 1, n, Jigsaw.BOT});
+            }
+        } else if (N > 1) {
+            for (int m = 0; m < M; m++) {
+                cut.add(new int[]{m, N / 2 - 1, Jigsaw.RIGHT});
+            }
+        }
+        int bits = Math.min(cubeBits, cut.size());
+        List<int[]> walls = new ArrayList<>();
+        for (int i = 0; i < bits; i++) {
+            walls.add(cut.get((2 * i + 1) * cut.size() / (2 * bits)));
+        }
+        return walls;
+    }
+
+    /**
+     * Cube c sets wall i poking in when bit i of c is set.
+     */
+    private static int[] cube(JigsawSolver3 formulation, List<int[]> walls, int c) {
+        int[] literals = new int[walls.size()];
+        for (int i = 0; i < walls.size(); i++) {
+            int[] wall = walls.get(i);
+            int literal = formulation.wallLiteral(wall[0], wall[1], wall[2]);
+            literals[i] = (c >> i & 1) == 1 ? literal : -literal;
+        }
+        return literals;
+    }
+
+    private record Result(JigsawSolver3 formulation, SatAssignment assignment) {
+    }
+
+    @Override
+    public List<JigsawLocation> solve(SatModel model) {
+        List<int[]> walls = cubeWalls();
+        int cubes = 1 << walls.size();
+        int workers = Math.min(threads, cubes);
+        System.out.println("Solving " + cubes + " cubes on " + workers + " threads.");
+
+        AtomicInteger nextCube = new AtomicInteger();
+        // Set before the running models are stopped, workers check it after publishing a model.
+        AtomicBoolean done = new AtomicBoolean();
+        // Set when a cube ended without a solution or a proof there is none.
+        AtomicBoolean gaveUp = new AtomicBoolean();
+        AtomicReferenceArray<SatModel> running = new AtomicReferenceArray<>(workers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "cube-solver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Result> conquer = new ExecutorCompletionService<>(executor);
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            conquer.submit(() -> {
+                JigsawSolver3 formulation = null;
+                SatModel workerModel = null;
+                for (int c = nextCube.getAndIncrement(); c < cubes; c = nextCube.getAndIncrement()) {
+                    if (!(workerModel instanceof IncrementalSatModel)) {
+                        formulation = full.copy();
+                        workerModel = newModel.get();
+                        running.set(worker, workerModel);
+                        formulation.formulate(workerModel);
+                    }
+                    if (done.get()) {
+                        return null;
+                    }
+                    int[] literals = cube(formulation, walls, c);
+                    SatAssignment assignment;
+                    if (workerModel instanceof IncrementalSatModel incremental) {
+                        assignment = incremental.solve(literals);
+                    } else {
+                        for (int literal : literals) {
+                            workerModel.addBoolOr(new int[]{literal});
+                        }
+                        assignment = workerModel.solve();
+                    }
+                    if (assignment != null) {
+                        return new Result(formulation, assignment);
+                    }
+                    if (!workerModel.provedUnsat()) {
+                        gaveUp.set(true);
+                    }
+                }
+                return null;
+            });
+        }
+
+        Result winner = null;
+        RuntimeException failure = new RuntimeException("A cube solver failed");
+        boolean failed = false;
+        try {
+            for (int i = 0; i < workers && winner == null; i++) {
+                try {
+                    winner = conquer.take().get();
+                } catch (ExecutionException e) {
+                    System.out.println("Cube solver failed: " + e.getCause());
+                    failure.addSuppressed(e.getCause());
+                    failed = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            done.set(true);
+            for (int w = 0; w < workers; w++) {
+                SatModel workerModel = running.get(w);
+                if (workerModel != null) {
+                    workerModel.stopSearch();
+                }
+            }
+            executor.shutdown();
+        }
+        if (winner == null && failed) {
+            // The cubes of a failed worker were never solved.
+            throw failure;
+        }
+        if (winner == null && gaveUp.get()) {
+            System.out.println("Gave up on some cubes, no answer.");
+            return null;
+        }
+        if (winner == null) {
+            System.out.println("No solution exists");
+            return null;
+        }
+        return winner.formulation().decode(winner.assignment());
+    }
+}
@@ -0,0 +1,128 @@
+package me.anitasv.jigsaw;
+
+import me.anitasv.sat.CdclModel;
+import me.anitasv.sat.IncrementalSatModel;
+import me.anitasv.sat.SatAssignment;
+import me.anitasv.sat.SatModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static me.anitasv.jigsaw.Jigsaw.SIDES;
+
+/**
+ * Solves the frame first, the ring of border pieces, then the rest.
+ *
+ * The frame is a small model of its own, solved by the in process CDCL
+ * solver. Its walls are then assumed in the full model, so the solver only
+ * searches the interior. The interior sees the frame only through the walls
+ * pointing inward, so when it has no solution, every frame with the same
+ * inward walls is ruled out and the next frame is tried. Symmetry breaking
+ * and poke balance tie the frame to the interior, with those only the frame
+ * itself is ruled out. Only frames proved to have no solution are ruled
+ * out, so when no frame is left there is no solution. An interior the
+ * model gives up on, on its time limit or stopped, ends the search without
+ * an answer. After maxFrames frames the full model is solved without
+ * assumptions.
+ *
+ * The frame model has the options of the full model as far as they concern
+ * the frame, so its frames don't break symmetry or poke balance the full
+ * model holds.
+ *
+ * Needs an {@link IncrementalSatModel}, any other model is solved whole.
+ */
+public class JigsawFrameSolver implements JigsawSolver {
+
+    public static final int DEFAULT_MAX_FRAMES = 16;
+
+    private final JigsawSolver3 full;
+    private final int maxFrames;
+
+    public JigsawFrameSolver(JigsawSolver3 full) {
+        this(full, DEFAULT_MAX_FRAMES);
+    }
+
+    public JigsawFrameSolver(JigsawSolver3 full, int maxFrames) {
+        this.full = full;
+        this.maxFrames = maxFrames;
+    }
+
+    @Override
+    public void formulate(SatModel model) {
+        full.formulate(model);
+    }
+
+    @Override
+    public List<JigsawLocation> solve(SatModel model) {
+        int M = full.M;
+        int N = full.N;
+        if (!(model instanceof IncrementalSatModel incremental) || M <= 2 || N <= 2) {
+            // Without an interior the frame is the whole puzzle.
+            return full.solve(model);
+        }
+
+        JigsawSolver3 frame = new JigsawSolver3(M, N, full.B, full.options);
+        CdclModel frameModel = new CdclModel();
+        frame.formulateFrame(frameModel);
+
+        // Walls of the border cells, each once, and which of them point inward.
+        List<int[]> walls = new ArrayList<>();
+        List<Boolean> inward = new ArrayList<>();
+        for (int m = 0; m < M; m++) {
+            for (int n = 0; n < N; n++) {
+                if (!full.isBorder(m, n)) {
+                    continue;
+                }
+                // RIGHT and BOT are owned by the cell, TOP and LEFT only when the neighbour is interior.
+                for (int s = 0; s < SIDES; s++) {
+                    int otherM = m + (s == Jigsaw.BOT ? 1 : s == Jigsaw.TOP ? -1 : 0);
+                    int otherN = n + (s == Jigsaw.RIGHT ? 1 : s == Jigsaw.LEFT ? -1 : 0);
+                    if (otherM < 0 || otherM >= M || otherN < 0 || otherN >= N) {
+                        continue;
+                    }
+                    boolean towardsInterior = !full.isBorder(otherM, otherN);
+                    if (s == Jigsaw.RIGHT || s == Jigsaw.BOT || towardsInterior) {
+                        walls.add(new int[]{m, n, s});
+                        inward.add(towardsInterior);
+                    }
+                }
+            }
+        }
+
+        boolean interiorOnly = !full.options.symmetryBreaking() && !full.options.pokeBalance();
+        for (int attempt = 1; attempt <= maxFrames; attempt++) {
+            SatAssignment frameSolution = frameModel.solve();
+            if (frameSolution == null) {
+                System.out.println(attempt == 1 ? "No frame exists" : "No frame left, no solution exists");
+                return null;
+            }
+
+            int[] assumptions = new int[walls.size()];
+            List<Integer> blocking = new ArrayList<>();
+            for (int i = 0; i < walls.size(); i++) {
+                int[] wall = walls.get(i);
+                int frameLiteral = frame.wallLiteral(wall[0], wall[1], wall[2]);
+                int fullLiteral = full.wallLiteral(wall[0], wall[1], wall[2]);
+                boolean pokesIn = frameSolution.isTrue(frameLiteral);
+                assumptions[i] = pokesIn ? fullLiteral : -fullLiteral;
+                if (inward.get(i) || !interiorOnly) {
+                    blocking.add(pokesIn ? -frameLiteral : frameLiteral);
+                }
+            }
+
+            System.out.println("Solving the interior of frame " + attempt + ".");
+            SatAssignment solution = incremental.solve(assumptions);
+            if (solution != null) {
+                return full.decode(solution);
+            }
+            if (!incremental.provedUnsat()) {
+                System.out.println("Gave up on the interior of frame " + attempt + ", no answer.");
+                return null;
+            }
+            frameModel.addBoolOr(blocking.stream().mapToInt(x -> x).toArray());
+        }
+
+        System.out.println("No interior for " + maxFrames + " frames, solving the full model.");
+        return full.decode(incremental.solve(new int[0]));
+    }
+}
@@ -9,4 +9,12 @@ public interface JigsawSolver {
     void formulate(SatModel model);
 
     List<JigsawLocation> solve(SatModel model);
+
+    /**
+     * Whether formulate() and solve() use the model handed to them, solvers
+     * which make their own models or none take null.
+     */
+    default boolean needsModel() {
+        return true;
+    }
 }
@@ -1,10 +1,10 @@
 package me.anitasv.jigsaw;
+import me.anitasv.sat.SatAssignment;
 import me.anitasv.sat.SatModel;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import static me.anitasv.jigsaw.Jigsaw.SIDES;
 
@@ -208,7 +208,7 @@ public class JigsawSolver2  implements JigsawSolver {
     @Override
     public List<JigsawLocation> solve(SatModel model) {
         //  Create a solver and solve the model.
-        Set<Integer> solution = model.solve();
+        SatAssignment solution = model.solve();
 
         if (solution == null) {
             System.out.println("No solution exists");
@@ -224,7 +224,7 @@ public class JigsawSolver2  implements JigsawSolver {
             boolean locFound = false;
             for (int m = 0; m < jigSaw.M; m++) {
                 for (int n = 0; n < jigSaw.N; n++) {
-                    if (solution.contains(X[k][m][n])) {
+                    if (solution.isTrue(X[k][m][n])) {
                         finalM = m;
                         finalN = n;
                         if (locFound) {
@@ -243,7 +243,7 @@ public class JigsawSolver2  implements JigsawSolver {
             boolean orientFound = false;
 
             for (int s = 0; s < SIDES; s++) {
-                if (solution.contains(Y[k][s])) {
+                if (solution.isTrue(Y[k][s])) {
                     finalS = s;
                     if (orientFound) {
                         System.out.println("Duplicate orientation!!");
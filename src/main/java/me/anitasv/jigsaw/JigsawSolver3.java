@@ -1,4 +1,6 @@
 package me.anitasv.jigsaw;
+import me.anitasv.sat.BranchValue;
+import me.anitasv.sat.SatAssignment;
 import me.anitasv.sat.SatModel;
 
 import java.util.*;
@@ -14,26 +16,131 @@ import static me.anitasv.jigsaw.Jigsaw.*;
  */
 public class JigsawSolver3  implements JigsawSolver {
 
-    private final int M;
-    private final int N;
-    private final JigsawPiece[] B;
+    final int M;
+    final int N;
+    // Pieces packed as in PackedPiece.
+    final byte[] B;
     private final int tot;
+    // Only rows firstRow .. endRow - 1 are formulated, every row unless solving in strips.
+    final int firstRow;
+    final int endRow;
+    // Pieces of each class the rows take, at most unless they are the last rows.
+    private final int[] classLimits;
     private final int[][] H;
     private final int[][] V;
 
-    record JigsawPosition(int m, int n, int j) {
+    // Class variables of every cell back to back, cell by cell in row major
+    // order. Border cells can only take the border classes [0, borderSize)
+    // and interior cells the interior ones [borderSize, size), so a cell only
+    // has slots for its own kind, starting at cellStart[cell].
+    final int[] J;
+    private final int[] cellStart;
+
+    // classVars[j] are the variables of class j over all cells it can go to.
+    private final int[][] classVars;
+    // Whether only the frame got variables, see formulateFrame.
+    private boolean frameOnly = false;
+
+    final JigsawCanonical canonical;
+
+    final Options options;
+
+    /**
+     * Order in which the walls are suggested as decisions.
+     */
+    public enum WallOrder {
+        // Left to the solver.
+        SOLVER,
+        // Row by row, H then V.
+        ROW_MAJOR,
+        // Cell by cell from the frame inward, like people solve them.
+        SPIRAL,
     }
 
-    private final Map<JigsawPosition, Integer> J;
+    /**
+     * Optional constraints, which don't change whether there is a solution,
+     * and search hints.
+     *
+     * @param symmetryBreaking   keep one of the rotations of the solution, see {@link #breakSymmetry}.
+     * @param impliedConstraints state facts which already follow from the model, to
+     *                           propagate earlier, see {@link #addImpliedConstraints}.
+     * @param pokeBalance        state that pokes balance across every row and column,
+     *                           see {@link #addPokeBalance}.
+     * @param wallOrder          decide on walls in this order, see {@link #addWallOrder}.
+     * @param branchValue        value tried first on walls, true being an inward poke
+     *                           for the cell above or to the left.
+     */
+    public record Options(boolean symmetryBreaking,
+                          boolean impliedConstraints,
+                          boolean pokeBalance,
+                          WallOrder wallOrder,
+                          BranchValue branchValue) {
 
-    private final JigsawCanonical canonical;
+        public static final Options DEFAULT = new Options(false, false, false,
+                WallOrder.SOLVER, BranchValue.FALSE_FIRST);
+
+        public Options withSymmetryBreaking(boolean symmetryBreaking) {
+            return new Options(symmetryBreaking, impliedConstraints, pokeBalance, wallOrder, branchValue);
+        }
+
+        public Options withImpliedConstraints(boolean impliedConstraints) {
+            return new Options(symmetryBreaking, impliedConstraints, pokeBalance, wallOrder, branchValue);
+        }
+
+        public Options withPokeBalance(boolean pokeBalance) {
+            return new Options(symmetryBreaking, impliedConstraints, pokeBalance, wallOrder, branchValue);
+        }
+
+        public Options withWallOrder(WallOrder wallOrder) {
+            return new Options(symmetryBreaking, impliedConstraints, pokeBalance, wallOrder, branchValue);
+        }
+
+        public Options withBranchValue(BranchValue branchValue) {
+            return new Options(symmetryBreaking, impliedConstraints, pokeBalance, wallOrder, branchValue);
+        }
+    }
 
     public JigsawSolver3(int M, int N, JigsawPiece[] B) {
+        this(M, N, B, Options.DEFAULT);
+    }
+
+    public JigsawSolver3(int M, int N, JigsawPiece[] B, Options options) {
+        this(M, N, pack(B), options);
+    }
+
+    /**
+     * @param B pieces packed as in {@link PackedPiece}, for puzzles too large
+     *          to keep a JigsawPiece per piece.
+     */
+    public JigsawSolver3(int M, int N, byte[] B, Options options) {
+        this(M, N, B, options, 0, M, null);
+    }
+
+    /**
+     * Only rows firstRow .. endRow - 1, with their walls, taking at most
+     * classLimits[j] pieces of class j, exactly when endRow is the last row.
+     * Null classLimits are the classes of B.
+     */
+    JigsawSolver3(int M, int N, byte[] B, Options options, int firstRow, int endRow, int[] classLimits) {
         this.M = M;
         this.N = N;
         this.B = B;
         this.tot = M * N;
-        this.canonical = new JigsawCanonical();
+        this.canonical = JigsawCanonical.get();
+        this.options = options;
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+        if (!whole() && options.symmetryBreaking()) {
+            throw new IllegalArgumentException("Symmetry breaking needs every row, got rows "
+                    + firstRow + " to " + (endRow - 1));
+        }
+        if (classLimits == null) {
+            classLimits = new int[canonical.size()];
+            for (byte piece : B) {
+                classLimits[PackedPiece.canonicalIndex(piece)]++;
+            }
+        }
+        this.classLimits = classLimits;
 
 
         // True indicates inwards, and False indicates outwards.
@@ -43,19 +150,110 @@ public class JigsawSolver3  implements JigsawSolver {
         this.V = new int[M][N - 1]; // Every cell except last column has a non-trivial right.
 
         // Every cell can be canonically be mapped to one of the 24 options.
-        this.J = new HashMap<>();
+        this.cellStart = new int[tot + 1];
+        int borderCells = 0;
+        for (int m = 0; m < M; m++) {
+            for (int n = 0; n < N; n++) {
+                int cell = m * N + n;
+                cellStart[cell + 1] = cellStart[cell] + (inRows(m) ? lastClass(m, n) - firstClass(m, n) : 0);
+                borderCells += inRows(m) && isBorder(m, n) ? 1 : 0;
+            }
+        }
+        this.J = new int[cellStart[tot]];
+        this.classVars = new int[canonical.size()][];
+        for (int j = 0; j < canonical.size(); j++) {
+            classVars[j] = new int[j < canonical.borderSize() ? borderCells : (endRow - firstRow) * N - borderCells];
+        }
+    }
+
+    static byte[] pack(JigsawPiece[] pieces) {
+        byte[] packed = new byte[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            packed[i] = PackedPiece.pack(pieces[i]);
+        }
+        return packed;
+    }
+
+    /**
+     * Same formulation of the same puzzle, to formulate into another model.
+     */
+    JigsawSolver3 copy() {
+        return rows(firstRow, endRow, classLimits);
+    }
+
+    /**
+     * Same formulation of rows firstRow .. endRow - 1 only, see the constructor.
+     */
+    JigsawSolver3 rows(int firstRow, int endRow, int[] classLimits) {
+        return new JigsawSolver3(M, N, B, options, firstRow, endRow, classLimits);
+    }
+
+    private boolean whole() {
+        return firstRow == 0 && endRow == M;
+    }
+
+    boolean inRows(int m) {
+        return m >= firstRow && m < endRow;
+    }
+
+    /**
+     * Whether cell (m, n) has variables, it is in the rows and in the frame
+     * when only the frame is formulated.
+     */
+    private boolean hasCell(int m, int n) {
+        return inRows(m) && (!frameOnly || isBorder(m, n));
+    }
+
+    boolean isBorder(int m, int n) {
+        return m == 0 || m == M - 1 || n == 0 || n == N - 1;
+    }
+
+    private int firstClass(int m, int n) {
+        return isBorder(m, n) ? 0 : canonical.borderSize();
+    }
+
+    private int lastClass(int m, int n) {
+        return isBorder(m, n) ? canonical.borderSize() : canonical.size();
+    }
+
+    /**
+     * Variable for class j at cell (m, n), 0 if the class can't go there.
+     */
+    int jVar(int m, int n, int j) {
+        if (!inRows(m) || j < firstClass(m, n) || j >= lastClass(m, n)) {
+            return 0;
+        }
+        return J[cellStart[m * N + n] + j - firstClass(m, n)];
+    }
+
+    private void newJVar(SatModel model, int m, int n, int j, String name) {
+        J[cellStart[m * N + n] + j - firstClass(m, n)] = model.newVariable(name);
     }
 
     public void createVariables(SatModel model) {
-        for (int m = 0; m < M - 1; m++) {
+        createVariables(model, false);
+    }
+
+    /**
+     * @param frameOnly only the variables of the border cells and their
+     *                  walls, those of the interior stay 0.
+     */
+    private void createVariables(SatModel model, boolean frameOnly) {
+        this.frameOnly = frameOnly;
+        // Walls of the rows, with the ones above and below them.
+        for (int m = Math.max(firstRow - 1, 0); m < Math.min(endRow, M - 1); m++) {
             for (int n = 0; n < N; n++) {
-                H[m][n] = model.newVariable("H_{" + m + "," + n + "}");
+                if (!frameOnly || isBorder(m, n) || isBorder(m + 1, n)) {
+                    H[m][n] = model.newVariable("H_{" + m + "," + n + "}");
+                }
             }
         }
 
-        for (int m = 0; m < M; m++) {
+        for (int m = firstRow; m < endRow; m++) {
             for (int n = 0; n < N - 1; n++) {
-                V[m][n] = model.newVariable("V_{" + m + "," + n + "}");
+                if (!frameOnly || isBorder(m, n) || isBorder(m, n + 1)) {
+                    V[m][n] = model.newVariable("V_{" + m + "," + n + "}");
+                }
             }
         }
 
@@ -63,25 +261,25 @@ public class JigsawSolver3  implements JigsawSolver {
 
         int borderSize = canonical.borderSize();
 
-        for (int m = 1; m < M - 1; m++) {
+        for (int m = Math.max(firstRow, 1); m < Math.min(endRow, M - 1) && !frameOnly; m++) {
             for (int n = 1; n < N - 1; n++) {
                 for (int j = 0; j < canonical.interiorSize(); j++) {
-                    J.put(new JigsawPosition(m, n, borderSize + j),
-                            model.newVariable("J_" + m + "," + n + "," + j + "}"));
+                    newJVar(model, m, n, borderSize + j,
+                            "J_" + m + "," + n + "," + j + "}");
                 }
             }
         }
 
-        for (int m = 0; m < M; m++) {
+        for (int m = firstRow; m < endRow; m++) {
             for (int j = 0; j < canonical.borderSize(); j++) {
                 // First Column
-                J.put(new JigsawPosition(m, 0, j),
-                        model.newVariable("J_{" + m + "," + 0 + "," + j + "}"));
+                newJVar(model, m, 0, j,
+                        "J_{" + m + "," + 0 + "," + j + "}");
 
                 if (0 != N - 1) {
                     // Last Column
-                    J.put(new JigsawPosition(m, N - 1, j),
-                            model.newVariable("J_{" + m + "," + (N - 1) + "," + j + "}"));
+                    newJVar(model, m, N - 1, j,
+                            "J_{" + m + "," + (N - 1) + "," + j + "}");
                 }
             }
         }
@@ -90,29 +288,34 @@ public class JigsawSolver3  implements JigsawSolver {
         for (int n = 1; n < N - 1; n++) {
             for (int j = 0; j < canonical.borderSize(); j++) {
                 // First Row
-                J.put(new JigsawPosition(0, n, j),
-                        model.newVariable("J_{" + 0 + "," + n + "," + j + "}"));
+                if (firstRow == 0) {
+                    newJVar(model, 0, n, j,
+                            "J_{" + 0 + "," + n + "," + j + "}");
+                }
 
-                if (0 != M - 1) {
+                if (0 != M - 1 && endRow == M) {
                     // Last Row
-                    J.put(new JigsawPosition(M - 1, n, j),
-                            model.newVariable("J_{" + (M - 1) + "," + n + "," + j + "}"));
+                    newJVar(model, M - 1, n, j,
+                            "J_{" + (M - 1) + "," + n + "," + j + "}");
+                }
+            }
+        }
+
+        int[] filled = new int[canonical.size()];
+        for (int m = firstRow; m < endRow; m++) {
+            for (int n = 0; n < N; n++) {
+                for (int j = firstClass(m, n); j < lastClass(m, n); j++) {
+                    classVars[j][filled[j]++] = jVar(m, n, j);
                 }
             }
         }
     }
 
     public void setOneHot(SatModel model) {
-        for (int m = 0; m < M; m++) {
+        for (int m = firstRow; m < endRow; m++) {
             for (int n = 0; n < N; n++) {
-                List<Integer> selectCell = new ArrayList<>();
-                for (int j = 0; j < canonical.size(); j++) {
-                    Integer canonicalVar = J.get(new JigsawPosition(m, n, j));
-                    if (canonicalVar != null) {
-                        selectCell.add(canonicalVar);
-                    }
-                }
-                model.addExactlyOne(selectCell.stream().mapToInt(x -> x).toArray());
+                int cell = m * N + n;
+                model.addExactlyOne(Arrays.copyOfRange(J, cellStart[cell], cellStart[cell + 1]));
             }
         }
     }
@@ -165,107 +368,483 @@ public class JigsawSolver3  implements JigsawSolver {
     }
 
     Wall getWall(int m, int n, int s) {
+        int literal = wallLiteral(m, n, s);
+        return literal == 0 ? flatWall : varWall(literal);
+    }
+
+    /**
+     * Literal which is true when side s of cell (m, n) pokes in, 0 when it is flat.
+     */
+    int wallLiteral(int m, int n, int s) {
         // H indicates horizontal bottom wall orientation with respect to that box.
         // V indicates vertical right wall orientation with respect to that box.
 //        this.H = new int[M - 1][N]; // Every cell except last row has non-trivial bottom
 //        this.V = new int[M][N - 1]; // Every cell except last column has a non-trivial right.
 
         if (s == RIGHT) {
-            if (n < N - 1) {
-                return varWall(V[m][n]);
-            } else {
-                return flatWall;
-            }
+            return n < N - 1 ? V[m][n] : 0;
         }
         if (s == BOT) {
-            if (m < M - 1) {
-                return varWall(H[m][n]);
-            } else {
-                return flatWall;
-            }
+            return m < M - 1 ? H[m][n] : 0;
         }
         if (s == LEFT) {
-            if (n > 0) {
-                return getWall(m, n - 1, RIGHT).flip();
-            } else {
-                return flatWall;
-            }
+            return n > 0 ? -wallLiteral(m, n - 1, RIGHT) : 0;
         }
         if (s == TOP) {
-            if (m > 0) {
-                return getWall(m - 1, n, BOT).flip();
-            } else {
-                return flatWall;
-            }
+            return m > 0 ? -wallLiteral(m - 1, n, BOT) : 0;
         }
         throw new IllegalArgumentException("side constraint 0 <= " + s + " < " + SIDES);
     }
 
-    record PieceConstraint(JigsawPiece piece, int[] constraint) {
+    /**
+     * Rotating a solved board by 180 degrees, or by 90 degrees when it is
+     * square, gives another solution using the same pieces, so the search
+     * would otherwise explore every solution 2 or 4 times.
+     *
+     * Reading the walls of the frame, then the rest, each H then V row by
+     * row, this keeps only assignments which are lexicographically no larger
+     * than any of their rotations. The smallest assignment in each group of
+     * rotations always qualifies. Rotations keep the frame walls in the
+     * frame, so the frame alone is held to the same order up to its last
+     * wall, which is all the frame model states.
+     */
+    void breakSymmetry(SatModel model) {
+        List<Integer> rotations = M == N ? List.of(1, 2, 3) : List.of(2);
+        for (int quarterTurns : rotations) {
+            List<Integer> walls = new ArrayList<>();
+            List<Integer> rotatedWalls = new ArrayList<>();
+            for (boolean frame : new boolean[]{true, false}) {
+                for (int m = 0; m < M - 1; m++) {
+                    for (int n = 0; n < N; n++) {
+                        if (H[m][n] != 0 && frame == (isBorder(m, n) || isBorder(m + 1, n))) {
+                            walls.add(H[m][n]);
+                            rotatedWalls.add(rotatedWall(m, n, BOT, quarterTurns));
+                        }
+                    }
+                }
+                for (int m = 0; m < M; m++) {
+                    for (int n = 0; n < N - 1; n++) {
+                        if (V[m][n] != 0 && frame == (isBorder(m, n) || isBorder(m, n + 1))) {
+                            walls.add(V[m][n]);
+                            rotatedWalls.add(rotatedWall(m, n, RIGHT, quarterTurns));
+                        }
+                    }
+                }
+            }
+            addLexLessOrEqual(model,
+                    walls.stream().mapToInt(x -> x).toArray(),
+                    rotatedWalls.stream().mapToInt(x -> x).toArray());
+        }
     }
 
+    /**
+     * Literal which is true when side s of cell (m, n) pokes in, after the
+     * board is turned clockwise by quarterTurns.
+     */
+    private int rotatedWall(int m, int n, int s, int quarterTurns) {
+        int rows = M;
+        int cols = N;
+        for (int i = 0; i < quarterTurns; i++) {
+            // Cell (m, n) goes to (n, rows - 1 - m) and each side moves one clockwise.
+            int turnedM = n;
+            n = rows - 1 - m;
+            m = turnedM;
+            s = (s + 1) % SIDES;
+            int turnedRows = cols;
+            cols = rows;
+            rows = turnedRows;
+        }
+        return getWall(m, n, s).match(() -> {
+            throw new IllegalStateException("Rotation moved a wall to the border");
+        }, v -> v);
+    }
 
-    static class PCGenerator {
-        private final Wall[] walls;
-        private final Deque<JigsawPoke> pokes = new ArrayDeque<>();
-        private final Deque<Integer> vars = new ArrayDeque<>();
+    /**
+     * x <= y, comparing from index 0 with false < true. equal tracks if every
+     * earlier position was equal, which is when position i has to be ordered.
+     */
+    static void addLexLessOrEqual(SatModel model, int[] x, int[] y) {
+        int equal = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (x[i] == y[i]) {
+                continue;
+            }
+            if (x[i] == -y[i]) {
+                // x[i] <= not x[i] forces x[i] false, and they always differ after.
+                model.addBoolOr(guarded(equal, -x[i]));
+                return;
+            }
+            model.addBoolOr(guarded(equal, -x[i], y[i]));
+            if (i == x.length - 1) {
+                return;
+            }
+            int nextEqual = model.newVariable("lex_" + i);
+            model.addBoolOr(guarded(equal, -x[i], nextEqual));
+            model.addBoolOr(guarded(equal, y[i], nextEqual));
+            equal = nextEqual;
+        }
+    }
 
-        private final List<PieceConstraint> pc = new ArrayList<>();
+    private static int[] guarded(int equal, int... literals) {
+        if (equal == 0) {
+            return literals;
+        }
+        int[] clause = Arrays.copyOf(literals, literals.length + 1);
+        clause[literals.length] = -equal;
+        return clause;
+    }
 
-        PCGenerator(Wall[] walls) {
-            this.walls = walls;
+    /**
+     * Adds constraints which every solution already satisfies, but which the
+     * solver would otherwise only discover by search:
+     *
+     * - A cell can only take classes with as many flats as it has flat sides,
+     *   so corner classes only go to the 4 corners and edge classes only to
+     *   the rest of the border.
+     * - A class at a cell fixes every wall on which all of its rotations that
+     *   fit there agree, for example a border piece is fixed by its flat side.
+     * - Each side of the puzzle takes exactly as many corner and edge pieces
+     *   as it has corner and edge cells.
+     */
+    void addImpliedConstraints(SatModel model) {
+        int[] classFlats = new int[canonical.size()];
+        for (int j = 0; j < canonical.size(); j++) {
+            for (JigsawPoke poke : canonical.representative(j).pokes) {
+                if (poke == JigsawPoke.FLAT) {
+                    classFlats[j]++;
+                }
+            }
         }
 
-        void init() {
-            start(0);
+        // Walls which poke in, and which poke out, under every assignment giving class j.
+        int[] alwaysIn = new int[canonical.size()];
+        int[] alwaysOut = new int[canonical.size()];
+        for (int m = firstRow; m < endRow; m++) {
+            for (int n = 0; n < N; n++) {
+                if (!hasCell(m, n)) {
+                    continue;
+                }
+                int flats = flats(m, n);
+                int cellFlats = Integer.bitCount(flats);
+                for (int j = 0; j < canonical.size(); j++) {
+                    int jVar = jVar(m, n, j);
+                    if (jVar != 0 && classFlats[j] != cellFlats) {
+                        model.addBoolOr(new int[]{-jVar});
+                    }
+                }
+
+                CellTemplate template = template(flats);
+                int allWalls = (1 << template.walls()) - 1;
+                Arrays.fill(alwaysIn, allWalls);
+                Arrays.fill(alwaysOut, allWalls);
+                for (int a = 0; a < template.size(); a++) {
+                    int j = template.classes()[a];
+                    for (int i = 0; i < template.walls(); i++) {
+                        if (template.pokesIn(a, i)) {
+                            alwaysOut[j] &= ~(1 << i);
+                        } else {
+                            alwaysIn[j] &= ~(1 << i);
+                        }
+                    }
+                }
+                int[] wallLiterals = wallLiterals(m, n);
+                boolean[] made = new boolean[canonical.size()];
+                for (int a = 0; a < template.size(); a++) {
+                    int j = template.classes()[a];
+                    if (made[j]) {
+                        continue;
+                    }
+                    made[j] = true;
+                    int jVar = jVar(m, n, j);
+                    for (int i = 0; i < template.walls(); i++) {
+                        if ((alwaysIn[j] >> i & 1) != 0) {
+                            model.addBoolOr(new int[]{-jVar, wallLiterals[i]});
+                        } else if ((alwaysOut[j] >> i & 1) != 0) {
+                            model.addBoolOr(new int[]{-jVar, -wallLiterals[i]});
+                        }
+                    }
+                }
+            }
         }
 
-        void addPoke(JigsawPoke poke, Runnable task) {
-            pokes.push(poke);
-            try {
-                task.run();
-            } finally {
-                pokes.pop();
+        // Each side of the puzzle, corners included, takes as many pieces with
+        // each number of flats as it has cells with that many flat sides.
+        List<List<int[]>> sides = List.of(line(0, 0, 0, 1, N), line(M - 1, 0, 0, 1, N),
+                line(0, 0, 1, 0, M), line(0, N - 1, 1, 0, M));
+        for (List<int[]> side : sides) {
+            for (int f = 0; f <= SIDES; f++) {
+                List<Integer> vars = new ArrayList<>();
+                int cells = 0;
+                for (int[] cell : side) {
+                    if (!hasCell(cell[0], cell[1])) {
+                        continue;
+                    }
+                    cells += Integer.bitCount(flats(cell[0], cell[1])) == f ? 1 : 0;
+                    for (int k = 0; k < canonical.size(); k++) {
+                        int jVar = jVar(cell[0], cell[1], k);
+                        if (jVar != 0 && classFlats[k] == f) {
+                            vars.add(jVar);
+                        }
+                    }
+                }
+                if (cells > 0) {
+                    model.addExactly(vars.stream().mapToInt(x -> x).toArray(), cells);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cells (m, n), (m + dm, n + dn), .. count cells in all.
+     */
+    private static List<int[]> line(int m, int n, int dm, int dn, int count) {
+        List<int[]> cells = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            cells.add(new int[]{m + i * dm, n + i * dn});
+        }
+        return cells;
+    }
+
+    /**
+     * Pokes balance across every row and column: the sum of the pokes of the
+     * pieces in a row is what pokes out through its top and bottom walls.
+     * Summed over rows this is the balance across every horizontal cut.
+     *
+     * These are long cardinality constraints, which slowed the CDCL backend
+     * down several times over, so they are separate from the cheap ones.
+     *
+     * A column only balances over all rows, so with some rows only the rows
+     * do, and with only the frame the lines all in the frame.
+     */
+    void addPokeBalance(SatModel model) {
+        int[] classPokes = new int[canonical.size()];
+        for (int j = 0; j < canonical.size(); j++) {
+            for (JigsawPoke poke : canonical.representative(j).pokes) {
+                classPokes[j] += poke.val;
+            }
+        }
+        for (int m = firstRow; m < endRow; m++) {
+            List<int[]> cells = new ArrayList<>();
+            for (int n = 0; n < N; n++) {
+                cells.add(new int[]{m, n});
+            }
+            if (cells.stream().allMatch(cell -> hasCell(cell[0], cell[1]))) {
+                addPokeBalance(model, cells, TOP, BOT, classPokes);
+            }
+        }
+        for (int n = 0; n < N && whole(); n++) {
+            List<int[]> cells = new ArrayList<>();
+            for (int m = 0; m < M; m++) {
+                cells.add(new int[]{m, n});
+            }
+            if (cells.stream().allMatch(cell -> hasCell(cell[0], cell[1]))) {
+                addPokeBalance(model, cells, LEFT, RIGHT, classPokes);
             }
         }
-        void addVar(int var, Runnable task) {
-            vars.push(var);
-            try {
-                task.run();
-            } finally {
-                vars.pop();
+    }
+
+    /**
+     * Sum of class pokes over the cells equals the pokes through the two
+     * given sides of each cell, other sides cancel out within the line.
+     *
+     * Written with unit weights for addExactly: a class with pokes p > 0
+     * counts its literal p times, p < 0 counts the negation -p times and
+     * adds -p to the total, and a wall which pokes in as literal t adds
+     * 2 t - 1, counted as not t twice on the other side.
+     */
+    private void addPokeBalance(SatModel model, List<int[]> cells,
+                                int side1, int side2, int[] classPokes) {
+        List<Integer> counted = new ArrayList<>();
+        int sum = 0;
+        for (int[] cell : cells) {
+            for (int j = 0; j < canonical.size(); j++) {
+                int jVar = jVar(cell[0], cell[1], j);
+                if (jVar == 0) {
+                    continue;
+                }
+                int pokes = classPokes[j];
+                for (int k = 0; k < Math.abs(pokes); k++) {
+                    counted.add(pokes > 0 ? jVar : -jVar);
+                }
+                if (pokes < 0) {
+                    sum -= pokes;
+                }
+            }
+            for (int s : new int[]{side1, side2}) {
+                Wall wall = getWall(cell[0], cell[1], s);
+                if (wall instanceof Wall.VarWall varWall) {
+                    counted.add(-varWall.var());
+                    counted.add(-varWall.var());
+                    sum += 1;
+                }
             }
         }
+        model.addExactly(counted.stream().mapToInt(x -> x).toArray(), sum);
+    }
 
-        void start(int s) {
-            if (s == walls.length) {
-                List<JigsawPoke> reversed = new ArrayList<>(this.pokes);
-                Collections.reverse(reversed);
-                pc.add(new PieceConstraint(
-                        new JigsawPiece(reversed.toArray(new JigsawPoke[0])),
-                        this.vars.stream().mapToInt(x -> x).toArray()));
+    /**
+     * Suggests the solver decides walls in the order of options.wallOrder().
+     * For SPIRAL the cells are walked clockwise from the top left corner,
+     * ring by ring towards the center, taking each wall of a cell the first
+     * time it is seen.
+     */
+    void addWallOrder(SatModel model) {
+        List<Integer> order = new ArrayList<>();
+        switch (options.wallOrder()) {
+            case SOLVER -> {
                 return;
             }
-            Wall wall = walls[s];
-            wall.match(() -> {
-                addPoke(JigsawPoke.FLAT, () -> {
-                    start(s + 1);
-                });
-            }, (var) -> {
-                addPoke(JigsawPoke.IN, () -> {
-                    addVar(var, () -> {
-                        start(s + 1);
-                    });
-                });
-                addPoke(JigsawPoke.OUT, () -> {
-                    addVar(-var, () -> {
-                        start(s + 1);
-                    });
-                });
-            });
+            case ROW_MAJOR -> {
+                for (int m = Math.max(firstRow - 1, 0); m < Math.min(endRow, M - 1); m++) {
+                    for (int n = 0; n < N; n++) {
+                        if (H[m][n] != 0) {
+                            order.add(H[m][n]);
+                        }
+                    }
+                }
+                for (int m = firstRow; m < endRow; m++) {
+                    for (int n = 0; n < N - 1; n++) {
+                        if (V[m][n] != 0) {
+                            order.add(V[m][n]);
+                        }
+                    }
+                }
+            }
+            case SPIRAL -> {
+                Set<Integer> seen = new HashSet<>();
+                int top = 0, bottom = M - 1, left = 0, right = N - 1;
+                while (top <= bottom && left <= right) {
+                    List<int[]> ring = new ArrayList<>();
+                    for (int n = left; n <= right; n++) {
+                        ring.add(new int[]{top, n});
+                    }
+                    for (int m = top + 1; m <= bottom; m++) {
+                        ring.add(new int[]{m, right});
+                    }
+                    if (top < bottom) {
+                        for (int n = right - 1; n >= left; n--) {
+                            ring.add(new int[]{bottom, n});
+                        }
+                    }
+                    if (left < right) {
+                        for (int m = bottom - 1; m > top; m--) {
+                            ring.add(new int[]{m, left});
+                        }
+                    }
+                    for (int[] cell : ring) {
+                        if (!hasCell(cell[0], cell[1])) {
+                            continue;
+                        }
+                        for (int s = 0; s < SIDES; s++) {
+                            getWall(cell[0], cell[1], s).match(() -> {
+                            }, v -> {
+                                int variable = Math.abs(v);
+                                if (seen.add(variable)) {
+                                    order.add(variable);
+                                }
+                            });
+                        }
+                    }
+                    top++;
+                    bottom--;
+                    left++;
+                    right--;
+                }
+            }
+        }
+        model.addDecisionStrategy(order.stream().mapToInt(x -> x).toArray(),
+                options.branchValue());
+    }
+
+    /**
+     * Every way of setting the walls of a cell whose flat sides are the bits
+     * of flats, with the class of the piece each makes. The walls which are
+     * not flat are numbered in side order, assignment a has wall i poke in
+     * when bit (walls - 1 - i) of a is clear.
+     *
+     * There are only a few shapes of cell, so these are worked out once for
+     * all puzzles and stamped onto each cell with its wall literals, see
+     * {@link #literals}.
+     */
+    record CellTemplate(int walls, int[] classes) {
+
+        int size() {
+            return classes.length;
+        }
+
+        boolean pokesIn(int a, int i) {
+            return (a >> (walls - 1 - i) & 1) == 0;
+        }
+
+        /**
+         * Literals which hold under assignment a, given the literals of the
+         * walls of a cell which poke in, last wall first.
+         */
+        int[] literals(int[] wallLiterals, int a) {
+            int[] literals = new int[walls];
+            for (int i = 0; i < walls; i++) {
+                literals[walls - 1 - i] = pokesIn(a, i) ? wallLiterals[i] : -wallLiterals[i];
+            }
+            return literals;
+        }
+    }
+
+    // TEMPLATES[flats] for every set of flat sides, the classes are the same for every puzzle.
+    private static final CellTemplate[] TEMPLATES = new CellTemplate[1 << SIDES];
+
+    static {
+        for (int flats = 0; flats < TEMPLATES.length; flats++) {
+            int walls = SIDES - Integer.bitCount(flats);
+            int[] classes = new int[1 << walls];
+            for (int a = 0; a < classes.length; a++) {
+                JigsawPoke[] pokes = new JigsawPoke[SIDES];
+                int i = 0;
+                for (int s = 0; s < SIDES; s++) {
+                    if ((flats >> s & 1) != 0) {
+                        pokes[s] = JigsawPoke.FLAT;
+                    } else {
+                        pokes[s] = (a >> (walls - 1 - i) & 1) == 0 ? JigsawPoke.IN : JigsawPoke.OUT;
+                        i++;
+                    }
+                }
+                classes[a] = JigsawCanonical.get().getCanonicalIndex(JigsawCanonical.code(pokes));
+            }
+            TEMPLATES[flats] = new CellTemplate(walls, classes);
         }
     }
 
+    static CellTemplate template(int flats) {
+        return TEMPLATES[flats];
+    }
+
+    /**
+     * Bit s is set when side s of cell (m, n) is flat.
+     */
+    int flats(int m, int n) {
+        int flats = 0;
+        for (int s = 0; s < SIDES; s++) {
+            if (wallLiteral(m, n, s) == 0) {
+                flats |= 1 << s;
+            }
+        }
+        return flats;
+    }
+
+    /**
+     * Literals of the walls of cell (m, n) which aren't flat, in side order.
+     */
+    int[] wallLiterals(int m, int n) {
+        int[] literals = new int[SIDES];
+        int walls = 0;
+        for (int s = 0; s < SIDES; s++) {
+            int literal = wallLiteral(m, n, s);
+            if (literal != 0) {
+                literals[walls++] = literal;
+            }
+        }
+        return walls == SIDES ? literals : Arrays.copyOf(literals, walls);
+    }
+
     public static String toDebug(int[] arr) {
         List<Integer> pcs = new ArrayList<>();
         for (int c : arr) {
@@ -278,105 +857,146 @@ public class JigsawSolver3  implements JigsawSolver {
     public void formulate(SatModel model) {
         createVariables(model);
         setOneHot(model);
-
-        Map<Integer, Integer> canonicalLimits = new HashMap<>();
-        for (int k = 0; k < tot; k++) {
-            int index = canonical.getCanonicalIndex(B[k]);
-            canonicalLimits.compute(index, (ignore, val) -> {
-               if (val == null) {
-                   return 1;
-               } else {
-                   return val + 1;
-               }
-            });
+        if (options.symmetryBreaking()) {
+            breakSymmetry(model);
         }
+        if (options.impliedConstraints()) {
+            addImpliedConstraints(model);
+        }
+        if (options.pokeBalance()) {
+            addPokeBalance(model);
+        }
+        addWallOrder(model);
 
         for (int j = 0; j < canonical.size(); j++) {
-            List<Integer> selectCell = new ArrayList<>();
-            for (int m = 0; m < M; m++) {
-                for (int n = 0; n < N; n++) {
-                    Integer canonicalVar = J.get(new JigsawPosition(m, n, j));
-                    if (canonicalVar != null) {
-                        selectCell.add(canonicalVar);
-                    }
+            if (endRow == M) {
+                model.addExactly(classVars[j], classLimits[j]);
+            } else {
+                model.addAtMost(classVars[j], classLimits[j]);
+            }
+        }
+
+        linkWallsToClasses(model);
+    }
+
+    /**
+     * Only the frame of the puzzle: the border cells with their walls and
+     * the border class counts. Walls and classes of the interior get no
+     * variables. The options hold as far as they concern the frame, so
+     * every frame of a solution of {@link #formulate} is a solution.
+     */
+    void formulateFrame(SatModel model) {
+        createVariables(model, true);
+        int[] borderLimits = new int[canonical.borderSize()];
+        for (byte piece : B) {
+            int index = PackedPiece.canonicalIndex(piece);
+            if (index < canonical.borderSize()) {
+                borderLimits[index]++;
+            }
+        }
+        for (int m = 0; m < M; m++) {
+            for (int n = 0; n < N; n++) {
+                if (isBorder(m, n)) {
+                    int cell = m * N + n;
+                    model.addExactlyOne(Arrays.copyOfRange(J, cellStart[cell], cellStart[cell + 1]));
+                    linkWallsToClass(model, m, n);
                 }
             }
-            int limit = canonicalLimits.getOrDefault(j, 0);
-            model.addExactly(selectCell.stream().mapToInt(x -> x).toArray(),
-                    limit);
         }
+        for (int j = 0; j < canonical.borderSize(); j++) {
+            model.addExactly(classVars[j], borderLimits[j]);
+        }
+        if (options.symmetryBreaking()) {
+            breakSymmetry(model);
+        }
+        if (options.impliedConstraints()) {
+            addImpliedConstraints(model);
+        }
+        if (options.pokeBalance()) {
+            addPokeBalance(model);
+        }
+        addWallOrder(model);
+    }
 
+    /**
+     * Every way the walls of a cell can be set implies the class of the
+     * piece they make.
+     */
+    void linkWallsToClasses(SatModel model) {
         // (-, -, <, >) -> J variable is true.
         // (J or ~Cond)
         // Cond = matches J.
-        for (int m = 0; m < M; m++) {
+        for (int m = firstRow; m < endRow; m++) {
             for (int n = 0; n < N; n++) {
-                Wall[] walls = new Wall[SIDES];
-                for (int s = 0; s < SIDES; s++) {
-                    walls[s] = getWall(m, n, s);
-                }
+                linkWallsToClass(model, m, n);
+            }
+        }
+    }
 
-                PCGenerator pcGen = new PCGenerator(walls);
-                pcGen.init();
-                List<PieceConstraint> pieceConstraints = pcGen.pc;
-
-                for (PieceConstraint pc : pieceConstraints) {
-                    int canonicalIndex = canonical.getCanonicalIndex(pc.piece);
-                    JigsawPosition pos = new JigsawPosition(m, n, canonicalIndex);
-                    Integer jVar = J.get(pos);
-                    if (jVar == null) {
-                        System.out.println("(" + m + "," + n + ") -> " + canonicalIndex);
-                        System.exit(1);
-                    }
-                    model.addBoolAndImplies(pc.constraint, jVar);
-                }
+    private void linkWallsToClass(SatModel model, int m, int n) {
+        CellTemplate template = template(flats(m, n));
+        int[] wallLiterals = wallLiterals(m, n);
+
+        for (int a = 0; a < template.size(); a++) {
+            int canonicalIndex = template.classes()[a];
+            int jVar = jVar(m, n, canonicalIndex);
+            if (jVar == 0) {
+                System.out.println("(" + m + "," + n + ") -> " + canonicalIndex);
+                System.exit(1);
             }
+            model.addBoolAndImplies(template.literals(wallLiterals, a), jVar);
         }
     }
 
     @Override
     public List<JigsawLocation> solve(SatModel model) {
-        Set<Integer> solution = model.solve();
+        return decode(model.solve());
+    }
 
+    /**
+     * Where each piece goes in a solution of the model, null if there is none.
+     */
+    List<JigsawLocation> decode(SatAssignment solution) {
         if (solution == null) {
             System.out.println("No solution exists");
             return null;
         }
-        Jigsaw jigSaw = new Jigsaw(M, N);
+        return place(M, N, B, pieces(solution));
+    }
 
-        for (int m = 0; m < M; m++) {
+    /**
+     * Pieces a solution of the model puts at each cell of the rows, row major.
+     */
+    byte[] pieces(SatAssignment solution) {
+        byte[] solved = new byte[(endRow - firstRow) * N];
+        for (int m = firstRow; m < endRow; m++) {
             for (int n = 0; n < N; n++) {
-                JigsawPoke[] pokes = jigSaw.pieces[m][n].pokes;
+                byte piece = 0;
                 for (int s = 0; s < SIDES; s++) {
-                    pokes[s] = getWall(m, n, s).match(() -> JigsawPoke.FLAT,
-                            (v) -> solution.contains(v) ? JigsawPoke.IN : JigsawPoke.OUT);
+                    int literal = wallLiteral(m, n, s);
+                    piece = PackedPiece.withPoke(piece, s, literal == 0 ? JigsawPoke.FLAT
+                            : solution.isTrue(literal) ? JigsawPoke.IN : JigsawPoke.OUT);
                 }
+                solved[(m - firstRow) * N + n] = piece;
             }
         }
+        return solved;
+    }
 
+    /**
+     * Matches the pieces B to the pieces a solution puts at each cell, row
+     * major, rotating each to fit.
+     */
+    static List<JigsawLocation> place(int M, int N, byte[] B, byte[] solved) {
+        int tot = M * N;
         Map<Integer, Deque<Integer>> remapping = new TreeMap<>();
 
         for (int k = 0; k < tot; k++) {
-            int index = canonical.getCanonicalIndex(B[k]);
+            int index = PackedPiece.canonicalIndex(B[k]);
             Deque<Integer> dq = remapping.computeIfAbsent(index, (ignore) -> new ArrayDeque<>());
             dq.push(k);
         }
 
-
-        Map<Integer, Integer> regenCounter = new TreeMap<>();
-        for (int m = 0; m < M; m++) {
-            for (int n = 0; n < N; n++) {
-                int index = canonical.getCanonicalIndex(jigSaw.pieces[m][n]);
-                regenCounter.compute(index, (ignore, val) -> {
-                    if (val == null) {
-                        return 1;
-                    } else {
-                        return val + 1;
-                    }
-                });
-            }
-        }
-
         ArrayList<JigsawLocation> output = new ArrayList<>(tot);
         for (int i = 0; i < tot; i++) {
             output.add(null);
@@ -386,29 +1006,15 @@ public class JigsawSolver3  implements JigsawSolver {
         outerLoop:
         for (int m = 0; m < M; m++) {
             for (int n = 0; n < N; n++) {
-                JigsawPiece targetPiece = jigSaw.pieces[m][n];
-                int index = canonical.getCanonicalIndex(targetPiece);
+                byte targetPiece = solved[m * N + n];
+                int index = PackedPiece.canonicalIndex(targetPiece);
                 Deque<Integer> bDq = remapping.get(index);
                 if (bDq == null || bDq.isEmpty()) {
                     hasError = true;
                     break outerLoop;
                 }
                 int bIndex = remapping.get(index).pop();
-                JigsawPiece sourcePiece = B[bIndex];
-                int rotValue = -1;
-                for (int rot = 0; rot < SIDES; rot++) {
-                    boolean found = true;
-                    for (int s = 0; s < SIDES; s++) {
-                        if (sourcePiece.pokes[(s + rot) % 4] != targetPiece.pokes[s]) {
-                            found = false;
-                            break;
-                        }
-                    }
-                    if (found) {
-                        rotValue = rot;
-                        break;
-                    }
-                }
+                int rotValue = PackedPiece.rotation(B[bIndex], targetPiece);
                 if (rotValue == -1) {
                     hasError = true;
                     break outerLoop;
@@ -0,0 +1,97 @@
+package me.anitasv.jigsaw;
+
+import me.anitasv.sat.SatModel;
+
+import java.util.Arrays;
+
+/**
+ * Formulation 3 with each cell as a single table constraint.
+ *
+ * Instead of one implication per way of setting the walls of a cell, plus a
+ * one hot over its classes, the walls and the class variables of a cell are
+ * tied by one table listing the allowed combinations. Same variables, class
+ * counts and options as formulation 3, but 1 constraint per cell instead of
+ * up to 17, which CP-SAT propagates as a whole.
+ */
+public class JigsawSolver4 extends JigsawSolver3 {
+
+    public JigsawSolver4(int M, int N, JigsawPiece[] B) {
+        super(M, N, B);
+    }
+
+    public JigsawSolver4(int M, int N, JigsawPiece[] B, Options options) {
+        super(M, N, B, options);
+    }
+
+    public JigsawSolver4(int M, int N, byte[] B, Options options) {
+        super(M, N, B, options);
+    }
+
+    private JigsawSolver4(int M, int N, byte[] B, Options options, int firstRow, int endRow, int[] classLimits) {
+        super(M, N, B, options, firstRow, endRow, classLimits);
+    }
+
+    @Override
+    JigsawSolver3 rows(int firstRow, int endRow, int[] classLimits) {
+        return new JigsawSolver4(M, N, B, options, firstRow, endRow, classLimits);
+    }
+
+    /**
+     * The table allows exactly one class per cell already.
+     */
+    @Override
+    public void setOneHot(SatModel model) {
+    }
+
+    @Override
+    void linkWallsToClasses(SatModel model) {
+        for (int m = firstRow; m < endRow; m++) {
+            for (int n = 0; n < N; n++) {
+                CellTemplate template = template(flats(m, n));
+                int[] wallLiterals = wallLiterals(m, n);
+                int walls = template.walls();
+
+                // Columns: the walls, then a class variable for each class the walls can make.
+                int[] classColumn = new int[canonical.size()];
+                Arrays.fill(classColumn, -1);
+                int columns = walls;
+                for (int a = 0; a < template.size(); a++) {
+                    int j = template.classes()[a];
+                    if (classColumn[j] == -1) {
+                        classColumn[j] = columns++;
+                    }
+                }
+                int[] variables = new int[columns];
+                for (int i = 0; i < walls; i++) {
+                    variables[i] = Math.abs(wallLiterals[i]);
+                }
+                for (int j = 0; j < canonical.size(); j++) {
+                    if (classColumn[j] != -1) {
+                        variables[classColumn[j]] = jVar(m, n, j);
+                    }
+                }
+
+                int[][] tuples = new int[template.size()][];
+                for (int a = 0; a < tuples.length; a++) {
+                    int[] tuple = new int[columns];
+                    for (int i = 0; i < walls; i++) {
+                        // The wall variable is set when its literal pokes in and is positive,
+                        // or pokes out and is negated.
+                        tuple[i] = template.pokesIn(a, i) == wallLiterals[i] > 0 ? 1 : 0;
+                    }
+                    tuple[classColumn[template.classes()[a]]] = 1;
+                    tuples[a] = tuple;
+                }
+                model.addAllowedAssignments(variables, tuples);
+
+                // Classes no combination of walls makes can't be here.
+                for (int j = 0; j < canonical.size(); j++) {
+                    int jVar = jVar(m, n, j);
+                    if (jVar != 0 && classColumn[j] == -1) {
+                        model.addBoolOr(new int[]{-jVar});
+                    }
+                }
+            }
+        }
+    }
+}
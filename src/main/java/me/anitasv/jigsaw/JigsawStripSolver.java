@@ -0,0 +1,205 @@
+package me.anitasv.jigsaw;
+
+import me.anitasv.sat.SatAssignment;
+import me.anitasv.sat.SatModel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static me.anitasv.jigsaw.Jigsaw.*;
+
+/**
+ * Solves a large puzzle as horizontal strips of rows, top to bottom, each in
+ * a model of its own, so only one strip is ever in memory.
+ *
+ * A strip of height rows is formulated as the whole puzzle would be, with its
+ * formulation and options, for those rows only: its top walls are fixed by
+ * the rows above, and it takes at most as many pieces of each class as are
+ * left. Only the first height - overlap rows are kept, the rest look ahead so
+ * the kept rows can be continued, and the next strip starts after the kept
+ * rows. When a strip is proved to have no solution, the strip above is
+ * solved again with the walls it handed down ruled out, at most
+ * maxBacktracks times in all, after which the whole puzzle is solved in
+ * one model. A strip the model gives up on, on its time limit or stopped,
+ * ends the search without an answer.
+ *
+ * Symmetry breaking needs the whole puzzle and is refused, poke balance
+ * only holds the rows of each strip.
+ *
+ * formulate() does nothing, the strips are formulated while solving, each in
+ * a model from newModel.
+ */
+public class JigsawStripSolver implements JigsawSolver {
+
+    public static final int DEFAULT_HEIGHT = 8;
+    public static final int DEFAULT_OVERLAP = 2;
+    public static final int DEFAULT_MAX_BACKTRACKS = 16;
+
+    private final JigsawSolver3 whole;
+    private final int M;
+    private final int N;
+    private final int height;
+    private final int overlap;
+    private final int maxBacktracks;
+    private final Supplier<SatModel> newModel;
+
+    public JigsawStripSolver(JigsawSolver3 whole, Supplier<SatModel> newModel) {
+        this(whole, DEFAULT_HEIGHT, DEFAULT_OVERLAP, DEFAULT_MAX_BACKTRACKS, newModel);
+    }
+
+    public JigsawStripSolver(JigsawSolver3 whole, int height, int overlap, Supplier<SatModel> newModel) {
+        this(whole, height, overlap, DEFAULT_MAX_BACKTRACKS, newModel);
+    }
+
+    public JigsawStripSolver(JigsawSolver3 whole, int height, int overlap, int maxBacktracks,
+                             Supplier<SatModel> newModel) {
+        if (overlap < 0 || height <= overlap) {
+            throw new IllegalArgumentException("Need 0 <= overlap < height, got overlap " + overlap
+                    + " and height " + height);
+        }
+        if (whole.options.symmetryBreaking()) {
+            throw new IllegalArgumentException("Symmetry breaking needs the whole puzzle, not strips");
+        }
+        this.whole = whole;
+        this.M = whole.M;
+        this.N = whole.N;
+        this.height = height;
+        this.overlap = overlap;
+        this.maxBacktracks = maxBacktracks;
+        this.newModel = newModel;
+    }
+
+    @Override
+    public void formulate(SatModel model) {
+    }
+
+    @Override
+    public boolean needsModel() {
+        return false;
+    }
+
+    /**
+     * A strip solved and kept, with what it was solved from, to solve it
+     * again when the strips below get stuck.
+     */
+    private record Kept(int rowStart, JigsawPoke[] top, int[] remaining, List<JigsawPoke[]> ruledOut) {
+    }
+
+    /**
+     * The piece at each cell of a strip, row major, or null with whether the
+     * model proved there are none.
+     */
+    private record Strip(byte[] pieces, boolean provedUnsat) {
+    }
+
+    @Override
+    public List<JigsawLocation> solve(SatModel model) {
+        int[] remaining = new int[JigsawCanonical.get().size()];
+        for (byte piece : whole.B) {
+            remaining[PackedPiece.canonicalIndex(piece)]++;
+        }
+
+        byte[] solved = new byte[M * N];
+        Deque<Kept> kept = new ArrayDeque<>();
+        int rowStart = 0;
+        JigsawPoke[] top = null;
+        List<JigsawPoke[]> ruledOut = new ArrayList<>();
+        int backtracks = 0;
+        while (rowStart < M) {
+            int rowEnd = Math.min(M, rowStart + height);
+            int keepEnd = rowEnd == M ? M : rowEnd - overlap;
+            System.out.println("Solving rows " + rowStart + " to " + (rowEnd - 1) + ".");
+            Strip solvedStrip = solveStrip(rowStart, rowEnd, keepEnd, top, remaining, ruledOut);
+            byte[] strip = solvedStrip.pieces();
+
+            if (strip == null && !solvedStrip.provedUnsat()) {
+                System.out.println("Gave up on rows " + rowStart + " to " + (rowEnd - 1) + ", no answer.");
+                return null;
+            }
+            if (strip == null) {
+                if (kept.isEmpty() && ruledOut.isEmpty()) {
+                    System.out.println("No solution exists");
+                    return null;
+                }
+                if (kept.isEmpty() || backtracks == maxBacktracks) {
+                    System.out.println("Strips got stuck, solving the whole puzzle.");
+                    return solveWhole();
+                }
+                backtracks++;
+                Kept above = kept.pop();
+                above.ruledOut().add(bottom(solved, rowStart - 1));
+                rowStart = above.rowStart();
+                top = above.top();
+                remaining = above.remaining();
+                ruledOut = above.ruledOut();
+                continue;
+            }
+
+            kept.push(new Kept(rowStart, top, remaining.clone(), ruledOut));
+            for (int cell = rowStart * N; cell < keepEnd * N; cell++) {
+                solved[cell] = strip[cell - rowStart * N];
+                remaining[PackedPiece.canonicalIndex(solved[cell])]--;
+            }
+            if (keepEnd < M) {
+                top = bottom(solved, keepEnd - 1);
+                for (int n = 0; n < N; n++) {
+                    top[n] = top[n].flip();
+                }
+            }
+            rowStart = keepEnd;
+            ruledOut = new ArrayList<>();
+        }
+        return JigsawSolver3.place(M, N, whole.B, solved);
+    }
+
+    private JigsawPoke[] bottom(byte[] solved, int m) {
+        JigsawPoke[] pokes = new JigsawPoke[N];
+        for (int n = 0; n < N; n++) {
+            pokes[n] = PackedPiece.poke(solved[m * N + n], BOT);
+        }
+        return pokes;
+    }
+
+    private List<JigsawLocation> solveWhole() {
+        SatModel model = newModel.get();
+        whole.formulate(model);
+        return whole.solve(model);
+    }
+
+    /**
+     * Rows rowStart .. rowEnd - 1 in a new model, given the top pokes of the
+     * first row when it isn't the top of the puzzle.
+     *
+     * @param ruledOut bottom pokes of row keepEnd - 1 not to hand down again.
+     */
+    private Strip solveStrip(int rowStart, int rowEnd, int keepEnd, JigsawPoke[] top,
+                              int[] remaining, List<JigsawPoke[]> ruledOut) {
+        JigsawSolver3 strip = whole.rows(rowStart, rowEnd, remaining.clone());
+        SatModel model = newModel.get();
+        strip.formulate(model);
+
+        if (top != null) {
+            for (int n = 0; n < N; n++) {
+                int topLiteral = strip.wallLiteral(rowStart, n, TOP);
+                model.addBoolOr(new int[]{top[n] == JigsawPoke.IN ? topLiteral : -topLiteral});
+            }
+        }
+        for (JigsawPoke[] bottom : ruledOut) {
+            int[] differs = new int[N];
+            for (int n = 0; n < N; n++) {
+                int bottomLiteral = strip.wallLiteral(keepEnd - 1, n, BOT);
+                differs[n] = bottom[n] == JigsawPoke.IN ? -bottomLiteral : bottomLiteral;
+            }
+            model.addBoolOr(differs);
+        }
+
+        SatAssignment solution = model.solve();
+        if (solution == null) {
+            return new Strip(null, model.provedUnsat());
+        }
+        return new Strip(strip.pieces(solution), false);
+    }
+}
@@ -0,0 +1,278 @@
+package me.anitasv.jigsaw;
+
+import me.anitasv.sat.SatModel;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static me.anitasv.jigsaw.Jigsaw.*;
+
+/**
+ * Exact search without a SAT model, for puzzles with a narrow side.
+ *
+ * Sweeps lines across the narrow side, one line after another along the
+ * long side, filling each line cell by cell. A cell is filled by choosing
+ * its two walls not yet set, which makes its piece, and a piece is only
+ * taken while there are pieces of its class left. Everything after a line
+ * depends only on the walls it hands to the next line, at most 2^width of
+ * them, and the classes left, so a (line, walls, classes left) state found
+ * to have no solution is remembered and never searched again.
+ *
+ * Pieces whose class has the largest share of its pieces left are tried
+ * first. A search stuck after a bad early choice starts over in a slightly
+ * different order, with twice the backtracks each time, and keeps what it
+ * learned, so it still ends and proves when there is no solution. That
+ * proof can take exponential time, so the search gives up after
+ * maxTimeInSeconds when there is one.
+ *
+ * formulate() does nothing and the model is not used.
+ */
+public class JigsawTransferSolver implements JigsawSolver {
+
+    // Up to 2^width walls between two lines, times the classes left, are remembered.
+    public static final int MAX_WIDTH = 8;
+    // Backtracks before the first restart, doubling with each.
+    private static final long RESTART_BACKTRACKS = 1 << 12;
+
+    private final int M;
+    private final int N;
+    private final byte[] B;
+    // Lines are columns when the puzzle is wider than it is tall, rows otherwise.
+    private final boolean columns;
+    // Cells per line, and lines.
+    private final int width;
+    private final int length;
+    // Give up after this long, 0 for no limit.
+    private final double maxTimeInSeconds;
+
+    public JigsawTransferSolver(int M, int N, JigsawPiece[] B) {
+        this(M, N, JigsawSolver3.pack(B), 0);
+    }
+
+    public JigsawTransferSolver(int M, int N, JigsawPiece[] B, double maxTimeInSeconds) {
+        this(M, N, JigsawSolver3.pack(B), maxTimeInSeconds);
+    }
+
+    public JigsawTransferSolver(int M, int N, byte[] B) {
+        this(M, N, B, 0);
+    }
+
+    public JigsawTransferSolver(int M, int N, byte[] B, double maxTimeInSeconds) {
+        if (Math.min(M, N) > MAX_WIDTH) {
+            throw new IllegalArgumentException("Narrow side " + Math.min(M, N) + " is wider than " + MAX_WIDTH);
+        }
+        this.M = M;
+        this.N = N;
+        this.B = B;
+        this.columns = M <= N;
+        this.width = columns ? M : N;
+        this.length = columns ? N : M;
+        this.maxTimeInSeconds = maxTimeInSeconds;
+    }
+
+    @Override
+    public void formulate(SatModel model) {
+    }
+
+    @Override
+    public boolean needsModel() {
+        return false;
+    }
+
+    /**
+     * A line to fill, with the walls handed to it and the classes left.
+     */
+    private record State(int line, int walls, int[] remaining) {
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof State other && line == other.line && walls == other.walls
+                    && Arrays.equals(remaining, other.remaining);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * line + walls) + Arrays.hashCode(remaining);
+        }
+    }
+
+    @Override
+    public List<JigsawLocation> solve(SatModel model) {
+        int tot = M * N;
+        if (!counted()) {
+            System.out.println("No solution exists");
+            return null;
+        }
+        int[] remaining = new int[JigsawCanonical.get().size()];
+        for (byte piece : B) {
+            remaining[PackedPiece.canonicalIndex(piece)]++;
+        }
+        int[] initial = remaining.clone();
+
+        // Sides of a cell as the sweep sees them.
+        int up = columns ? TOP : LEFT;
+        int down = columns ? BOT : RIGHT;
+        int back = columns ? LEFT : TOP;
+        int ahead = columns ? RIGHT : BOT;
+
+        // Cell p is at position p % width of line p / width, choice[p] is how
+        // many of its candidate pieces were tried, less one.
+        int[] choice = new int[tot];
+        byte[] pieces = new byte[tot];
+        Set<State> dead = new HashSet<>();
+        byte[] candidates = new byte[4];
+        double[] scores = new double[4];
+
+        long deadline = maxTimeInSeconds > 0
+                ? System.nanoTime() + (long) (maxTimeInSeconds * 1e9)
+                : Long.MAX_VALUE;
+        int restart = 0;
+        long backtracks = 0;
+        long maxBacktracks = RESTART_BACKTRACKS;
+        int p = 0;
+        choice[0] = -1;
+        while (p < tot) {
+            int k = p % width;
+            int line = p / width;
+            // Candidates are the pieces its down and ahead walls can make, of classes
+            // with pieces left, the class with the largest share of its pieces left first.
+            // After a restart the shares are scaled by a noise fixed per run and cell.
+            int count = 0;
+            for (int c = 0; c < 4; c++) {
+                boolean downIn = (c & 1) != 0;
+                boolean aheadIn = (c & 2) != 0;
+                if ((k == width - 1 && downIn) || (line == length - 1 && aheadIn)) {
+                    continue;
+                }
+                byte piece = 0;
+                piece = PackedPiece.withPoke(piece, up,
+                        k == 0 ? JigsawPoke.FLAT : PackedPiece.poke(pieces[p - 1], down).flip());
+                piece = PackedPiece.withPoke(piece, back,
+                        line == 0 ? JigsawPoke.FLAT : PackedPiece.poke(pieces[p - width], ahead).flip());
+                piece = PackedPiece.withPoke(piece, down,
+                        k == width - 1 ? JigsawPoke.FLAT : downIn ? JigsawPoke.IN : JigsawPoke.OUT);
+                piece = PackedPiece.withPoke(piece, ahead,
+                        line == length - 1 ? JigsawPoke.FLAT : aheadIn ? JigsawPoke.IN : JigsawPoke.OUT);
+                int j = PackedPiece.canonicalIndex(piece);
+                if (remaining[j] == 0) {
+                    continue;
+                }
+                double score = (double) remaining[j] / initial[j];
+                if (restart > 0) {
+                    score *= 0.5 + noise(restart, p, c);
+                }
+                int at = count++;
+                for (; at > 0 && scores[at - 1] < score; at--) {
+                    candidates[at] = candidates[at - 1];
+                    scores[at] = scores[at - 1];
+                }
+                candidates[at] = piece;
+                scores[at] = score;
+            }
+            choice[p]++;
+
+            if (choice[p] < count) {
+                pieces[p] = candidates[choice[p]];
+                remaining[PackedPiece.canonicalIndex(pieces[p])]--;
+                p++;
+                if (p < tot) {
+                    choice[p] = -1;
+                    if (p % width == 0 && dead.contains(state(p, pieces, remaining, ahead))) {
+                        // Known to fail, backtrack as if every choice was tried.
+                        choice[p] = 4;
+                    }
+                }
+                continue;
+            }
+
+            // Every choice for cell p was tried.
+            if (k == 0 && line > 0) {
+                dead.add(state(p, pieces, remaining, ahead));
+            }
+            if (p == 0) {
+                System.out.println("No solution exists");
+                return null;
+            }
+            p--;
+            remaining[PackedPiece.canonicalIndex(pieces[p])]++;
+
+            if (backtracks % RESTART_BACKTRACKS == 0 && System.nanoTime() > deadline) {
+                System.out.println("Transfer matrix search ran out of time.");
+                return null;
+            }
+
+            if (++backtracks == maxBacktracks) {
+                // Start over in another order, the dead states stay dead.
+                restart++;
+                backtracks = 0;
+                maxBacktracks *= 2;
+                p = 0;
+                choice[0] = -1;
+                System.arraycopy(initial, 0, remaining, 0, remaining.length);
+            }
+        }
+        System.out.println("Transfer matrix search ruled out " + dead.size() + " states in "
+                + (restart + 1) + " runs.");
+
+        byte[] solved = new byte[tot];
+        for (int q = 0; q < tot; q++) {
+            int k = q % width;
+            int line = q / width;
+            solved[columns ? k * N + line : line * N + k] = pieces[q];
+        }
+        return JigsawSolver3.place(M, N, B, solved);
+    }
+
+    /**
+     * Whether there are as many pieces with each number of flat sides as
+     * cells with that many sides on the edge, and the pokes balance. The
+     * search would find out, but only after trying everything.
+     */
+    private boolean counted() {
+        int[] flats = new int[SIDES + 1];
+        int balance = 0;
+        for (byte piece : B) {
+            int pieceFlats = 0;
+            for (int s = 0; s < SIDES; s++) {
+                JigsawPoke poke = PackedPiece.poke(piece, s);
+                pieceFlats += poke == JigsawPoke.FLAT ? 1 : 0;
+                balance += poke.val;
+            }
+            flats[pieceFlats]++;
+        }
+        for (int m = 0; m < M; m++) {
+            for (int n = 0; n < N; n++) {
+                int cellFlats = (m == 0 ? 1 : 0) + (m == M - 1 ? 1 : 0) + (n == 0 ? 1 : 0) + (n == N - 1 ? 1 : 0);
+                flats[cellFlats]--;
+            }
+        }
+        return balance == 0 && Arrays.stream(flats).allMatch(count -> count == 0);
+    }
+
+    /**
+     * In [0, 1), the same for the same run, cell and walls.
+     */
+    private static double noise(int restart, int p, int c) {
+        long x = ((long) restart << 40 | (long) p << 2 | c) * 0x9E3779B97F4A7C15L;
+        x ^= x >>> 29;
+        x *= 0xBF58476D1CE4E5B9L;
+        x ^= x >>> 32;
+        return (x >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * The state at the start of the line of cell p, which has to be the
+     * first of its line.
+     */
+    private State state(int p, byte[] pieces, int[] remaining, int ahead) {
+        int walls = 0;
+        for (int k = 0; k < width; k++) {
+            if (PackedPiece.poke(pieces[p - width + k], ahead) == JigsawPoke.IN) {
+                walls |= 1 << k;
+            }
+        }
+        return new State(p / width, walls, remaining.clone());
+    }
+}
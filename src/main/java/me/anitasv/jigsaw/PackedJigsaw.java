@@ -0,0 +1,99 @@
+package me.anitasv.jigsaw;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Same random puzzles as {@link Jigsaw}, with the pieces as {@link PackedPiece}
+ * bytes in row major order, so a 1000x1000 puzzle takes a megabyte.
+ */
+public class PackedJigsaw {
+
+    public final int M;
+    public final int N;
+    // pieces[m * N + n] is the piece at (m, n).
+    public final byte[] pieces;
+
+    public PackedJigsaw(int M, int N) {
+        this.M = M;
+        this.N = N;
+        this.pieces = new byte[M * N];
+        this.generate();
+    }
+
+    void generate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // Flip LEFT | RIGHT banners.
+        for (int m = 0; m < M; m++) {
+            for (int n = 0; n < N - 1; n++) {
+                JigsawPoke pokeRight = random.nextBoolean() ? JigsawPoke.IN : JigsawPoke.OUT;
+                int cell = m * N + n;
+                pieces[cell] = PackedPiece.withPoke(pieces[cell], Jigsaw.RIGHT, pokeRight);
+                pieces[cell + 1] = PackedPiece.withPoke(pieces[cell + 1], Jigsaw.LEFT, pokeRight.flip());
+            }
+        }
+        for (int n = 0; n < N; n++) {
+            for (int m = 0; m < M - 1; m++) {
+                JigsawPoke pokeBot = random.nextBoolean() ? JigsawPoke.IN : JigsawPoke.OUT;
+                int cell = m * N + n;
+                pieces[cell] = PackedPiece.withPoke(pieces[cell], Jigsaw.BOT, pokeBot);
+                pieces[cell + N] = PackedPiece.withPoke(pieces[cell + N], Jigsaw.TOP, pokeBot.flip());
+            }
+        }
+    }
+
+    public byte piece(int m, int n) {
+        return pieces[m * N + n];
+    }
+
+    /**
+     * Pieces shuffled and rotated. Piece i came from cell origins[i] >> 2,
+     * rotated by origins[i] & 3 as in {@link Jigsaw#shuffle}.
+     */
+    public record Shuffled(byte[] pieces, int[] origins) {
+
+        public JigsawPiece[] unpack() {
+            JigsawPiece[] unpacked = new JigsawPiece[pieces.length];
+            for (int i = 0; i < pieces.length; i++) {
+                unpacked[i] = PackedPiece.unpack(pieces[i]);
+            }
+            return unpacked;
+        }
+    }
+
+    /**
+     * Retains original jigsaw structure as is.
+     *
+     * @return new random permutation+rotation of pieces.
+     */
+    public Shuffled shuffle() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] origins = new int[M * N];
+        for (int cell = 0; cell < origins.length; cell++) {
+            origins[cell] = cell << 2;
+        }
+        for (int i = origins.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int origin = origins[i];
+            origins[i] = origins[j];
+            origins[j] = origin;
+        }
+
+        byte[] rotated = new byte[origins.length];
+        for (int i = 0; i < origins.length; i++) {
+            int k = random.nextInt(Jigsaw.SIDES);
+            rotated[i] = PackedPiece.rotate(pieces[origins[i] >> 2], k);
+            origins[i] |= k;
+        }
+        return new Shuffled(rotated, origins);
+    }
+
+    /**
+     * Where piece i of a shuffle came from, as {@link Jigsaw#shuffle} reports it.
+     */
+    public JigsawLocation origin(Shuffled shuffled, int i) {
+        int origin = shuffled.origins()[i];
+        int cell = origin >> 2;
+        return new JigsawLocation(cell / N, cell % N, origin & 3);
+    }
+}
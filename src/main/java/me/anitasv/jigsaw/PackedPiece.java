@@ -0,0 +1,102 @@
+package me.anitasv.jigsaw;
+
+/**
+ * A piece in one byte, 2 bits per side with side s in bits 2s and 2s + 1,
+ * holding the ordinal of its {@link JigsawPoke}: 0 flat, 1 in, 2 out.
+ *
+ * Rotating, flipping and finding the class of a piece are bit operations
+ * and table lookups, so large puzzles can be kept as a byte[].
+ */
+public final class PackedPiece {
+
+    private static final int SIDE_BITS = 2;
+    private static final int SIDE_MASK = (1 << SIDE_BITS) - 1;
+    private static final int PIECE_BITS = SIDE_BITS * Jigsaw.SIDES;
+    private static final int PIECE_MASK = (1 << PIECE_BITS) - 1;
+
+    private static final JigsawPoke[] POKES = JigsawPoke.values();
+
+    // CLASSES[piece & 0xFF] is the canonical class of the piece, -1 when a side is not a poke.
+    private static final int[] CLASSES = new int[1 << PIECE_BITS];
+
+    static {
+        for (int piece = 0; piece < CLASSES.length; piece++) {
+            int code = 0;
+            for (int s = Jigsaw.SIDES - 1; s >= 0 && code >= 0; s--) {
+                int ordinal = piece >> (SIDE_BITS * s) & SIDE_MASK;
+                code = ordinal < POKES.length ? code * POKES.length + ordinal : -1;
+            }
+            CLASSES[piece] = code < 0 ? -1 : JigsawCanonical.get().getCanonicalIndex(code);
+        }
+    }
+
+    private PackedPiece() {
+    }
+
+    public static byte pack(JigsawPoke[] pokes) {
+        int piece = 0;
+        for (int s = 0; s < Jigsaw.SIDES; s++) {
+            piece |= pokes[s].ordinal() << (SIDE_BITS * s);
+        }
+        return (byte) piece;
+    }
+
+    public static byte pack(JigsawPiece piece) {
+        return pack(piece.pokes);
+    }
+
+    public static JigsawPiece unpack(byte piece) {
+        JigsawPoke[] pokes = new JigsawPoke[Jigsaw.SIDES];
+        for (int s = 0; s < Jigsaw.SIDES; s++) {
+            pokes[s] = poke(piece, s);
+        }
+        return new JigsawPiece(pokes);
+    }
+
+    public static JigsawPoke poke(byte piece, int s) {
+        return POKES[piece >> (SIDE_BITS * s) & SIDE_MASK];
+    }
+
+    public static byte withPoke(byte piece, int s, JigsawPoke poke) {
+        int shift = SIDE_BITS * s;
+        return (byte) (piece & ~(SIDE_MASK << shift) | poke.ordinal() << shift);
+    }
+
+    /**
+     * The piece whose side s is side (s + k) mod 4 of the given one, as
+     * {@link Jigsaw#shuffle} rotates them.
+     */
+    public static byte rotate(byte piece, int k) {
+        int bits = piece & PIECE_MASK;
+        int shift = SIDE_BITS * Math.floorMod(k, Jigsaw.SIDES);
+        return (byte) ((bits >>> shift | bits << (PIECE_BITS - shift)) & PIECE_MASK);
+    }
+
+    /**
+     * Swaps in and out on every side, flat stays flat. This is the piece
+     * that fits into this one.
+     */
+    public static byte flip(byte piece) {
+        int bits = piece & PIECE_MASK;
+        return (byte) ((bits & 0x55) << 1 | (bits & 0xAA) >> 1);
+    }
+
+    /**
+     * Same as {@link JigsawCanonical#getCanonicalIndex}.
+     */
+    public static int canonicalIndex(byte piece) {
+        return CLASSES[piece & PIECE_MASK];
+    }
+
+    /**
+     * Smallest k with rotate(source, k) == target, -1 if none.
+     */
+    public static int rotation(byte source, byte target) {
+        for (int k = 0; k < Jigsaw.SIDES; k++) {
+            if (rotate(source, k) == target) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,9 @@
+package me.anitasv.sat;
+
+/**
+ * Which value a decision tries first.
+ */
+public enum BranchValue {
+    FALSE_FIRST,
+    TRUE_FIRST,
+}
@@ -0,0 +1,226 @@
+package me.anitasv.sat;
+
+/**
+ * CNF encodings of the constraint "exactly sum of the literals are true".
+ *
+ * Every encoding only needs {@link SatModel#newVariable(String)} and
+ * {@link SatModel#addBoolOr(int[])}, so they work on top of any model that
+ * can take plain clauses.
+ */
+public enum CardinalityEncoding {
+
+    /**
+     * Bailleux-Boufkhad totalizer: a balanced tree of unary adders, each
+     * node capped at sum + 1 outputs. O(n log n) variables, O(n sum) clauses.
+     */
+    TOTALIZER {
+        @Override
+        int[] unaryCount(SatModel model, int[] literals, int cap) {
+            return totalize(model, literals, 0, literals.length, cap);
+        }
+    },
+
+    /**
+     * Sinz sequential counter, with both directions of every register so it
+     * can be used for at least as well as at most. O(n sum) variables and clauses.
+     */
+    SEQUENTIAL_COUNTER {
+        @Override
+        int[] unaryCount(SatModel model, int[] literals, int cap) {
+            return sequentialCount(model, literals, cap);
+        }
+    },
+
+    /**
+     * Batcher odd-even merge sort over the literals, padded to a power of two
+     * with false. O(n log^2 n) comparators of 6 clauses each.
+     */
+    SORTING_NETWORK {
+        @Override
+        int[] unaryCount(SatModel model, int[] literals, int cap) {
+            return sort(model, literals);
+        }
+    };
+
+    // Stands for the constant false inside the sorting network, never handed to a model.
+    private static final int FALSE = 0;
+
+    /**
+     * Returns unary count of the literals, i.e. i-th (0 based) output is true iff
+     * at least i+1 of the literals are true. Outputs at index >= cap
+     * may be dropped, and an output may be FALSE (0) when it is trivially false.
+     */
+    abstract int[] unaryCount(SatModel model, int[] literals, int cap);
+
+    public void addExactly(SatModel model, int[] literals, int sum) {
+        if (sum < 0 || sum > literals.length) {
+            // Empty clause, nothing can satisfy this.
+            model.addBoolOr(new int[0]);
+            return;
+        }
+        if (sum == 0 || sum == literals.length) {
+            for (int literal : literals) {
+                model.addBoolOr(new int[]{sum == 0 ? -literal : literal});
+            }
+            return;
+        }
+        int[] count = unaryCount(model, literals, sum + 1);
+        // At least sum.
+        model.addBoolOr(count[sum - 1] == FALSE ? new int[0] : new int[]{count[sum - 1]});
+        // At most sum.
+        if (sum < count.length && count[sum] != FALSE) {
+            model.addBoolOr(new int[]{-count[sum]});
+        }
+    }
+
+    public void addAtMost(SatModel model, int[] literals, int k) {
+        if (k < 0) {
+            // Empty clause, nothing can satisfy this.
+            model.addBoolOr(new int[0]);
+            return;
+        }
+        if (k >= literals.length) {
+            return;
+        }
+        if (k == 0) {
+            for (int literal : literals) {
+                model.addBoolOr(new int[]{-literal});
+            }
+            return;
+        }
+        int[] count = unaryCount(model, literals, k + 1);
+        if (k < count.length && count[k] != FALSE) {
+            model.addBoolOr(new int[]{-count[k]});
+        }
+    }
+
+    private static int[] totalize(SatModel model, int[] literals, int from, int to, int cap) {
+        if (to - from == 1) {
+            return new int[]{literals[from]};
+        }
+        int mid = (from + to) >>> 1;
+        int[] a = totalize(model, literals, from, mid, cap);
+        int[] b = totalize(model, literals, mid, to, cap);
+
+        int[] r = new int[Math.min(a.length + b.length, cap)];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = model.newVariable("{ignore}");
+        }
+
+        // a_0 and b_0 are true, a_{p+1} and b_{q+1} are false.
+        for (int i = 0; i <= a.length; i++) {
+            for (int j = 0; j <= b.length; j++) {
+                // a_i and b_j => r_{i+j}
+                if (i + j >= 1) {
+                    int k = Math.min(i + j, r.length);
+                    model.addBoolOr(clause(i > 0 ? -a[i - 1] : FALSE,
+                            j > 0 ? -b[j - 1] : FALSE,
+                            r[k - 1]));
+                }
+                // (not a_{i+1}) and (not b_{j+1}) => not r_{i+j+1}
+                if (i + j + 1 <= r.length) {
+                    model.addBoolOr(clause(i < a.length ? a[i] : FALSE,
+                            j < b.length ? b[j] : FALSE,
+                            -r[i + j]));
+                }
+            }
+        }
+        return r;
+    }
+
+    private static int[] sequentialCount(SatModel model, int[] literals, int cap) {
+        // prev[j - 1] is true iff at least j of the literals seen so far are true.
+        int[] prev = new int[]{literals[0]};
+        for (int i = 1; i < literals.length; i++) {
+            int x = literals[i];
+            int[] cur = new int[Math.min(i + 1, cap)];
+            for (int j = 1; j <= cur.length; j++) {
+                int c = model.newVariable("{ignore}");
+                cur[j - 1] = c;
+                int prevJ = j <= prev.length ? prev[j - 1] : FALSE;
+                int prevJm1 = j > 1 ? prev[j - 2] : FALSE;
+
+                // prev_j => cur_j
+                if (prevJ != FALSE) {
+                    model.addBoolOr(new int[]{-prevJ, c});
+                }
+                // x and prev_{j-1} => cur_j
+                model.addBoolOr(clause(-x, j > 1 ? -prevJm1 : FALSE, c));
+                // cur_j => prev_j or x
+                model.addBoolOr(clause(-c, prevJ, x));
+                // cur_j => prev_j or prev_{j-1}, trivial when j == 1
+                if (j > 1) {
+                    model.addBoolOr(clause(-c, prevJ, prevJm1));
+                }
+            }
+            prev = cur;
+        }
+        return prev;
+    }
+
+    private static int[] sort(SatModel model, int[] literals) {
+        int n = Integer.highestOneBit(literals.length);
+        if (n < literals.length) {
+            n <<= 1;
+        }
+        int[] wires = new int[n];
+        System.arraycopy(literals, 0, wires, 0, literals.length);
+
+        for (int p = 1; p < n; p <<= 1) {
+            for (int k = p; k >= 1; k >>= 1) {
+                for (int j = k % p; j + k < n; j += 2 * k) {
+                    for (int i = 0; i < Math.min(k, n - j - k); i++) {
+                        if ((i + j) / (2 * p) == (i + j + k) / (2 * p)) {
+                            compare(model, wires, i + j, i + j + k);
+                        }
+                    }
+                }
+            }
+        }
+        return wires;
+    }
+
+    /**
+     * Puts (a or b) on wire x and (a and b) on wire y, so larger values
+     * bubble to the lower indices.
+     */
+    private static void compare(SatModel model, int[] wires, int x, int y) {
+        int a = wires[x];
+        int b = wires[y];
+        if (a == FALSE || b == FALSE) {
+            wires[x] = a == FALSE ? b : a;
+            wires[y] = FALSE;
+            return;
+        }
+        int hi = model.newVariable("{ignore}");
+        int lo = model.newVariable("{ignore}");
+        model.addBoolOr(new int[]{-a, hi});
+        model.addBoolOr(new int[]{-b, hi});
+        model.addBoolOr(new int[]{-hi, a, b});
+        model.addBoolOr(new int[]{-lo, a});
+        model.addBoolOr(new int[]{-lo, b});
+        model.addBoolOr(new int[]{-a, -b, lo});
+        wires[x] = hi;
+        wires[y] = lo;
+    }
+
+    /**
+     * Builds a clause skipping FALSE literals.
+     */
+    private static int[] clause(int... literals) {
+        int size = 0;
+        for (int literal : literals) {
+            if (literal != FALSE) {
+                size++;
+            }
+        }
+        int[] result = new int[size];
+        int i = 0;
+        for (int literal : literals) {
+            if (literal != FALSE) {
+                result[i++] = literal;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package me.anitasv.sat;
+
+import java.util.Arrays;
+
+/**
+ * Solves in process with {@link CdclSolver}, no native library or external
+ * process needed. Exactly constraints are kept as native cardinality
+ * constraints instead of being encoded to clauses.
+ *
+ * Scopes are implemented with a selector variable per push(): constraints
+ * added within the scope only hold when its selector is true, solves assume
+ * every open selector, and pop() fixes the selector false for good.
+ */
+public class CdclModel implements IncrementalSatModel {
+
+    private final CdclSolver solver = new CdclSolver();
+    private final IntVec selectors = new IntVec();
+
+    @Override
+    public int newVariable(String name) {
+        return solver.newVariable();
+    }
+
+    @Override
+    public void addBoolOr(int[] literals) {
+        if (selectors.isEmpty()) {
+            solver.addClause(literals);
+            return;
+        }
+        int[] clause = Arrays.copyOf(literals, literals.length + 1);
+        clause[literals.length] = -selectors.last();
+        solver.addClause(clause);
+    }
+
+    @Override
+    public void addBoolAndImplies(int[] literals, int literal) {
+        int[] clause = new int[literals.length + 1];
+        for (int i = 0; i < literals.length; i++) {
+            clause[i] = -literals[i];
+        }
+        clause[literals.length] = literal;
+        addBoolOr(clause);
+    }
+
+    @Override
+    public void addExactlyOne(int[] literals) {
+        addBoolOr(literals);
+        addAtMost(literals, 1);
+    }
+
+    @Override
+    public void addExactly(int[] selectCell, int sum) {
+        addAtMost(selectCell, sum);
+        // At least sum true is at most (length - sum) false.
+        int[] negated = new int[selectCell.length];
+        for (int i = 0; i < selectCell.length; i++) {
+            negated[i] = -selectCell[i];
+        }
+        addAtMost(negated, selectCell.length - sum);
+    }
+
+    @Override
+    public void addAtMost(int[] literals, int k) {
+        if (selectors.isEmpty() || k >= literals.length) {
+            solver.addAtMost(literals, k);
+            return;
+        }
+        if (k < 0) {
+            solver.addClause(new int[]{-selectors.last()});
+            return;
+        }
+        // Selector counted (length - k) times: while it is true at most k of
+        // the literals fit, once it is false any number do.
+        int slack = literals.length - k;
+        int[] guarded = Arrays.copyOf(literals, literals.length + slack);
+        Arrays.fill(guarded, literals.length, guarded.length, selectors.last());
+        solver.addAtMost(guarded, literals.length);
+    }
+
+    @Override
+    public void push() {
+        selectors.push(solver.newVariable());
+    }
+
+    @Override
+    public void pop() {
+        if (selectors.isEmpty()) {
+            throw new IllegalStateException("pop() without a matching push()");
+        }
+        solver.addClause(new int[]{-selectors.pop()});
+    }
+
+    @Override
+    public void addDecisionStrategy(int[] variables, BranchValue value) {
+        solver.prioritize(variables, value == BranchValue.TRUE_FIRST);
+    }
+
+    public long conflicts() {
+        return solver.conflicts();
+    }
+
+    @Override
+    public void stopSearch() {
+        solver.stop();
+    }
+
+    @Override
+    public boolean provedUnsat() {
+        return solver.refuted();
+    }
+
+    @Override
+    public SatAssignment solve(int[] assumptions) {
+        int[] assumed = Arrays.copyOf(selectors.toArray(), selectors.size() + assumptions.length);
+        System.arraycopy(assumptions, 0, assumed, selectors.size(), assumptions.length);
+        boolean satisfiable = solver.solve(assumed);
+        System.out.println("CDCL conflicts: " + solver.conflicts() +
+                ", decisions: " + solver.decisions() +
+                ", propagations: " + solver.propagations());
+        if (!satisfiable) {
+            return null;
+        }
+        SatAssignment assignment = new SatAssignment(solver.numVariables());
+        for (int v = 1; v <= solver.numVariables(); v++) {
+            if (solver.modelValue(v)) {
+                assignment.set(v);
+            }
+        }
+        return assignment;
+    }
+}
@@ -0,0 +1,795 @@
+package me.anitasv.sat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A conflict driven clause learning SAT solver, in the style of MiniSAT and Glucose.
+ *
+ * - Two watched literals with blockers for clauses.
+ * - Native at most k constraints, propagated with counters and explained lazily
+ *   during conflict analysis.
+ * - First UIP learning with basic clause minimization.
+ * - EVSIDS branching with phase saving.
+ * - Luby restarts, and learnt clause database reduction by LBD on restarts.
+ * - Incremental: clauses can be added between solves, and each solve can be
+ *   under assumptions, which are decided first and never learnt from.
+ *
+ * Clauses are stored in a flat int[] arena: [size, lbd, literals...], and are
+ * referred to by their offset in the arena.
+ *
+ * Externally literals are non zero integers like DIMACS, internally a literal
+ * is 2 * variable + (1 if negative).
+ */
+final class CdclSolver {
+
+    private static final int NONE = -1;
+    private static final int HEADER = 2;
+
+    private static final byte TRUE = 1;
+    private static final byte FALSE = -1;
+    private static final byte UNASSIGNED = 0;
+
+    private static final int RESTART_UNIT = 100;
+    private static final double VAR_DECAY = 0.95;
+
+    private int numVariables = 0;
+
+    // Indexed by variable, 0 is unused.
+    private byte[] assigns = new byte[16];
+    private byte[] phase = new byte[16];
+    private int[] level = new int[16];
+    private int[] reason = new int[16];
+    private int[] trailPos = new int[16];
+    private double[] activity = new double[16];
+    private boolean[] seen = new boolean[16];
+    private int[] heapIndex = new int[16];
+
+    // Indexed by internal literal.
+    // watches[lit] has (clause, blocker) pairs to be visited when lit becomes false.
+    private IntVec[] watches = new IntVec[32];
+    // cardOccurs[lit] has the at most k constraints lit belongs to.
+    private IntVec[] cardOccurs = new IntVec[32];
+
+    private int[] arena = new int[1024];
+    private int arenaSize = 0;
+    private final IntVec clauses = new IntVec();
+    private final IntVec learnts = new IntVec();
+
+    private final List<int[]> cardLits = new ArrayList<>();
+    private final IntVec cardBound = new IntVec();
+    private final IntVec cardCount = new IntVec();
+
+    private final IntVec trail = new IntVec(1024);
+    private final IntVec trailLim = new IntVec();
+    private int qhead = 0;
+
+    private final IntVec heap = new IntVec();
+    private double varInc = 1;
+
+    private final IntVec learnt = new IntVec();
+    private final IntVec explanation = new IntVec();
+    private final IntVec minimizeBuffer = new IntVec();
+    private final IntVec toClear = new IntVec();
+    private int[] levelStamp = new int[16];
+    private int stamp = 0;
+
+    private int maxLearnts = 5000;
+    // Internal literals assumed by the current solve, decided one per level first.
+    private int[] assumptions = new int[0];
+    private boolean unsat = false;
+    // Whether the last solve ended with a proof that there is no model.
+    private boolean refuted = false;
+    private byte[] model = null;
+    private volatile boolean stopped = false;
+
+    private long conflicts = 0;
+    private long decisions = 0;
+    private long propagations = 0;
+
+    int newVariable() {
+        int v = ++numVariables;
+        if (v >= assigns.length) {
+            int capacity = assigns.length * 2;
+            assigns = Arrays.copyOf(assigns, capacity);
+            phase = Arrays.copyOf(phase, capacity);
+            level = Arrays.copyOf(level, capacity);
+            reason = Arrays.copyOf(reason, capacity);
+            trailPos = Arrays.copyOf(trailPos, capacity);
+            activity = Arrays.copyOf(activity, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+            heapIndex = Arrays.copyOf(heapIndex, capacity);
+            watches = Arrays.copyOf(watches, 2 * capacity);
+            cardOccurs = Arrays.copyOf(cardOccurs, 2 * capacity);
+        }
+        phase[v] = FALSE;
+        reason[v] = NONE;
+        heapIndex[v] = -1;
+        watches[2 * v] = new IntVec();
+        watches[2 * v + 1] = new IntVec();
+        cardOccurs[2 * v] = new IntVec(1);
+        cardOccurs[2 * v + 1] = new IntVec(1);
+        heapInsert(v);
+        return v;
+    }
+
+    int numVariables() {
+        return numVariables;
+    }
+
+    long conflicts() {
+        return conflicts;
+    }
+
+    long decisions() {
+        return decisions;
+    }
+
+    long propagations() {
+        return propagations;
+    }
+
+    private static int toInternal(int literal) {
+        return literal > 0 ? literal << 1 : ((-literal) << 1) | 1;
+    }
+
+    private byte value(int lit) {
+        byte a = assigns[lit >> 1];
+        return (lit & 1) == 0 ? a : (byte) -a;
+    }
+
+    private int decisionLevel() {
+        return trailLim.size();
+    }
+
+    private static int cardReason(int card) {
+        return -2 - card;
+    }
+
+    private static boolean isCardReason(int reasonCode) {
+        return reasonCode <= -2;
+    }
+
+    /**
+     * Adds a clause, only allowed between solves.
+     */
+    void addClause(int[] literals) {
+        if (unsat) {
+            return;
+        }
+        IntVec lits = new IntVec(literals.length);
+        for (int literal : literals) {
+            int lit = toInternal(literal);
+            byte val = value(lit);
+            if (val == TRUE) {
+                return;
+            }
+            if (val == FALSE) {
+                continue;
+            }
+            boolean duplicate = false;
+            for (int i = 0; i < lits.size(); i++) {
+                if (lits.get(i) == lit) {
+                    duplicate = true;
+                } else if (lits.get(i) == (lit ^ 1)) {
+                    // Tautology.
+                    return;
+                }
+            }
+            if (!duplicate) {
+                lits.push(lit);
+            }
+        }
+        if (lits.isEmpty()) {
+            unsat = true;
+        } else if (lits.size() == 1) {
+            assign(lits.get(0), NONE);
+        } else {
+            int ref = allocClause(lits, 0);
+            clauses.push(ref);
+            attach(ref);
+        }
+    }
+
+    /**
+     * Adds the constraint at most k of the literals are true, only allowed between solves.
+     */
+    void addAtMost(int[] literals, int k) {
+        if (unsat) {
+            return;
+        }
+        if (k < 0) {
+            unsat = true;
+            return;
+        }
+        if (k >= literals.length) {
+            return;
+        }
+        int[] lits = new int[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            lits[i] = toInternal(literals[i]);
+        }
+        int id = cardLits.size();
+        cardLits.add(lits);
+        cardBound.push(k);
+        int count = 0;
+        for (int lit : lits) {
+            cardOccurs[lit].push(id);
+            if (value(lit) == TRUE) {
+                count++;
+            }
+        }
+        cardCount.push(count);
+        if (count > k) {
+            unsat = true;
+        } else if (count == k) {
+            for (int lit : lits) {
+                if (value(lit) == UNASSIGNED) {
+                    assign(lit ^ 1, NONE);
+                }
+            }
+        }
+    }
+
+    private int allocClause(IntVec lits, int lbd) {
+        int size = lits.size();
+        if (arenaSize + HEADER + size > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + HEADER + size));
+        }
+        int ref = arenaSize;
+        arena[ref] = size;
+        arena[ref + 1] = lbd;
+        for (int i = 0; i < size; i++) {
+            arena[ref + HEADER + i] = lits.get(i);
+        }
+        arenaSize += HEADER + size;
+        return ref;
+    }
+
+    private void attach(int ref) {
+        int a = arena[ref + HEADER];
+        int b = arena[ref + HEADER + 1];
+        watches[a].push(ref);
+        watches[a].push(b);
+        watches[b].push(ref);
+        watches[b].push(a);
+    }
+
+    private void assign(int lit, int reasonCode) {
+        int v = lit >> 1;
+        assigns[v] = (lit & 1) == 0 ? TRUE : FALSE;
+        level[v] = decisionLevel();
+        reason[v] = reasonCode;
+        trailPos[v] = trail.size();
+        trail.push(lit);
+        IntVec occurs = cardOccurs[lit];
+        for (int i = 0; i < occurs.size(); i++) {
+            int id = occurs.get(i);
+            cardCount.set(id, cardCount.get(id) + 1);
+        }
+    }
+
+    private void cancelUntil(int targetLevel) {
+        if (decisionLevel() <= targetLevel) {
+            return;
+        }
+        int start = trailLim.get(targetLevel);
+        for (int i = trail.size() - 1; i >= start; i--) {
+            int lit = trail.get(i);
+            int v = lit >> 1;
+            phase[v] = assigns[v];
+            assigns[v] = UNASSIGNED;
+            reason[v] = NONE;
+            IntVec occurs = cardOccurs[lit];
+            for (int j = 0; j < occurs.size(); j++) {
+                int id = occurs.get(j);
+                cardCount.set(id, cardCount.get(id) - 1);
+            }
+            if (heapIndex[v] < 0) {
+                heapInsert(v);
+            }
+        }
+        trail.shrink(start);
+        trailLim.shrink(targetLevel);
+        qhead = trail.size();
+    }
+
+    /**
+     * @return conflicting reason code or NONE.
+     */
+    private int propagate() {
+        while (qhead < trail.size()) {
+            int p = trail.get(qhead++);
+            propagations++;
+            int conflict = propagateClauses(p ^ 1);
+            if (conflict == NONE) {
+                conflict = propagateCards(p);
+            }
+            if (conflict != NONE) {
+                qhead = trail.size();
+                return conflict;
+            }
+        }
+        return NONE;
+    }
+
+    private int propagateClauses(int falseLit) {
+        IntVec ws = watches[falseLit];
+        int i = 0;
+        int j = 0;
+        int n = ws.size();
+        while (i < n) {
+            int ref = ws.get(i);
+            int blocker = ws.get(i + 1);
+            i += 2;
+            if (value(blocker) == TRUE) {
+                ws.set(j++, ref);
+                ws.set(j++, blocker);
+                continue;
+            }
+            int base = ref + HEADER;
+            // Make sure the false literal is at position 1.
+            if (arena[base] == falseLit) {
+                arena[base] = arena[base + 1];
+                arena[base + 1] = falseLit;
+            }
+            int first = arena[base];
+            if (first != blocker && value(first) == TRUE) {
+                ws.set(j++, ref);
+                ws.set(j++, first);
+                continue;
+            }
+            int size = arena[ref];
+            boolean moved = false;
+            for (int k = 2; k < size; k++) {
+                int lit = arena[base + k];
+                if (value(lit) != FALSE) {
+                    arena[base + 1] = lit;
+                    arena[base + k] = falseLit;
+                    watches[lit].push(ref);
+                    watches[lit].push(first);
+                    moved = true;
+                    break;
+                }
+            }
+            if (moved) {
+                continue;
+            }
+            ws.set(j++, ref);
+            ws.set(j++, first);
+            if (value(first) == FALSE) {
+                while (i < n) {
+                    ws.set(j++, ws.get(i++));
+                }
+                ws.shrink(j);
+                return ref;
+            }
+            assign(first, ref);
+        }
+        ws.shrink(j);
+        return NONE;
+    }
+
+    private int propagateCards(int p) {
+        IntVec occurs = cardOccurs[p];
+        for (int i = 0; i < occurs.size(); i++) {
+            int id = occurs.get(i);
+            int k = cardBound.get(id);
+            int count = cardCount.get(id);
+            if (count > k) {
+                return cardReason(id);
+            }
+            if (count == k) {
+                for (int lit : cardLits.get(id)) {
+                    if (value(lit) == UNASSIGNED) {
+                        assign(lit ^ 1, cardReason(id));
+                    }
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Collects the false literals which together with p make up the reason
+     * clause, or the conflicting clause when p is NONE.
+     */
+    private void explain(int reasonCode, int p, IntVec out) {
+        out.clear();
+        if (isCardReason(reasonCode)) {
+            int limit = p == NONE ? Integer.MAX_VALUE : trailPos[p >> 1];
+            for (int lit : cardLits.get(-2 - reasonCode)) {
+                if (value(lit) == TRUE && trailPos[lit >> 1] < limit) {
+                    out.push(lit ^ 1);
+                }
+            }
+        } else {
+            int size = arena[reasonCode];
+            int base = reasonCode + HEADER;
+            // Propagated literal is always at position 0.
+            for (int k = p == NONE ? 0 : 1; k < size; k++) {
+                out.push(arena[base + k]);
+            }
+        }
+    }
+
+    /**
+     * First UIP conflict analysis, leaves the learnt clause in learnt with
+     * the asserting literal first and a literal of the backtrack level second.
+     *
+     * @return level to backtrack to.
+     */
+    private int analyze(int conflict) {
+        learnt.clear();
+        learnt.push(NONE);
+        int pathCount = 0;
+        int p = NONE;
+        int index = trail.size() - 1;
+        int reasonCode = conflict;
+        do {
+            explain(reasonCode, p, explanation);
+            for (int i = 0; i < explanation.size(); i++) {
+                int q = explanation.get(i);
+                int v = q >> 1;
+                if (!seen[v] && level[v] > 0) {
+                    bumpVariable(v);
+                    seen[v] = true;
+                    if (level[v] >= decisionLevel()) {
+                        pathCount++;
+                    } else {
+                        learnt.push(q);
+                    }
+                }
+            }
+            while (!seen[trail.get(index) >> 1]) {
+                index--;
+            }
+            p = trail.get(index--);
+            reasonCode = reason[p >> 1];
+            seen[p >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        learnt.set(0, p ^ 1);
+
+        // Basic minimization, drop literals implied by the rest of the clause.
+        toClear.clear();
+        for (int i = 1; i < learnt.size(); i++) {
+            toClear.push(learnt.get(i));
+        }
+        int j = 1;
+        for (int i = 1; i < learnt.size(); i++) {
+            int q = learnt.get(i);
+            int r = reason[q >> 1];
+            boolean redundant = r != NONE;
+            if (redundant) {
+                explain(r, q ^ 1, minimizeBuffer);
+                for (int k = 0; k < minimizeBuffer.size(); k++) {
+                    int v = minimizeBuffer.get(k) >> 1;
+                    if (!seen[v] && level[v] > 0) {
+                        redundant = false;
+                        break;
+                    }
+                }
+            }
+            if (!redundant) {
+                learnt.set(j++, q);
+            }
+        }
+        learnt.shrink(j);
+        for (int i = 0; i < toClear.size(); i++) {
+            seen[toClear.get(i) >> 1] = false;
+        }
+
+        if (learnt.size() == 1) {
+            return 0;
+        }
+        int maxIndex = 1;
+        for (int i = 2; i < learnt.size(); i++) {
+            if (level[learnt.get(i) >> 1] > level[learnt.get(maxIndex) >> 1]) {
+                maxIndex = i;
+            }
+        }
+        int swap = learnt.get(1);
+        learnt.set(1, learnt.get(maxIndex));
+        learnt.set(maxIndex, swap);
+        return level[learnt.get(1) >> 1];
+    }
+
+    private int computeLbd(IntVec lits) {
+        if (levelStamp.length <= decisionLevel()) {
+            levelStamp = Arrays.copyOf(levelStamp, 2 * decisionLevel() + 1);
+        }
+        stamp++;
+        int lbd = 0;
+        for (int i = 0; i < lits.size(); i++) {
+            int l = level[lits.get(i) >> 1];
+            if (levelStamp[l] != stamp) {
+                levelStamp[l] = stamp;
+                lbd++;
+            }
+        }
+        return lbd;
+    }
+
+    /**
+     * Makes the variables, in order, the first decisions until conflicts
+     * bump others past them, and tries value first on each.
+     */
+    void prioritize(int[] variables, boolean value) {
+        for (int i = 0; i < variables.length; i++) {
+            int v = variables[i];
+            // Below a single bump, so learning still takes over.
+            activity[v] = Math.max(activity[v], varInc * (variables.length - i) / (variables.length + 1));
+            phase[v] = value ? TRUE : FALSE;
+            if (heapIndex[v] >= 0) {
+                heapUp(heapIndex[v]);
+            }
+        }
+    }
+
+    private void bumpVariable(int v) {
+        activity[v] += varInc;
+        if (activity[v] > 1e100) {
+            for (int u = 1; u <= numVariables; u++) {
+                activity[u] *= 1e-100;
+            }
+            varInc *= 1e-100;
+        }
+        if (heapIndex[v] >= 0) {
+            heapUp(heapIndex[v]);
+        }
+    }
+
+    private void heapInsert(int v) {
+        heapIndex[v] = heap.size();
+        heap.push(v);
+        heapUp(heapIndex[v]);
+    }
+
+    private int heapRemoveMax() {
+        int top = heap.get(0);
+        int last = heap.pop();
+        heapIndex[top] = -1;
+        if (!heap.isEmpty()) {
+            heap.set(0, last);
+            heapIndex[last] = 0;
+            heapDown(0);
+        }
+        return top;
+    }
+
+    private void heapUp(int i) {
+        int v = heap.get(i);
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            int u = heap.get(parent);
+            if (activity[u] >= activity[v]) {
+                break;
+            }
+            heap.set(i, u);
+            heapIndex[u] = i;
+            i = parent;
+        }
+        heap.set(i, v);
+        heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        int v = heap.get(i);
+        int size = heap.size();
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && activity[heap.get(child + 1)] > activity[heap.get(child)]) {
+                child++;
+            }
+            int u = heap.get(child);
+            if (activity[u] <= activity[v]) {
+                break;
+            }
+            heap.set(i, u);
+            heapIndex[u] = i;
+            i = child;
+        }
+        heap.set(i, v);
+        heapIndex[v] = i;
+    }
+
+    private int pickBranchLiteral() {
+        while (!heap.isEmpty()) {
+            int v = heapRemoveMax();
+            if (assigns[v] == UNASSIGNED) {
+                return phase[v] == TRUE ? v << 1 : (v << 1) | 1;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Removes the worse half of learnt clauses by LBD and compacts the arena.
+     * Only called at level 0 where no clause is a reason which matters.
+     */
+    private void reduceLearnts() {
+        long[] keys = new long[learnts.size()];
+        for (int i = 0; i < learnts.size(); i++) {
+            keys[i] = ((long) arena[learnts.get(i) + 1] << 32) | i;
+        }
+        Arrays.sort(keys);
+        boolean[] keep = new boolean[learnts.size()];
+        for (int i = 0; i < keys.length; i++) {
+            int index = (int) keys[i];
+            int lbd = (int) (keys[i] >>> 32);
+            keep[index] = i < keys.length / 2 || lbd <= 2;
+        }
+
+        int[] oldArena = arena;
+        arena = new int[Math.max(1024, arenaSize)];
+        arenaSize = 0;
+        for (int lit = 2; lit <= 2 * numVariables + 1; lit++) {
+            watches[lit].clear();
+        }
+        IntVec lits = new IntVec();
+        for (int i = 0; i < clauses.size(); i++) {
+            clauses.set(i, copyClause(oldArena, clauses.get(i), lits));
+            attach(clauses.get(i));
+        }
+        int kept = 0;
+        for (int i = 0; i < learnts.size(); i++) {
+            if (keep[i]) {
+                int ref = copyClause(oldArena, learnts.get(i), lits);
+                learnts.set(kept++, ref);
+                attach(ref);
+            }
+        }
+        learnts.shrink(kept);
+        for (int v = 1; v <= numVariables; v++) {
+            reason[v] = NONE;
+        }
+    }
+
+    private int copyClause(int[] from, int ref, IntVec lits) {
+        lits.clear();
+        for (int k = 0; k < from[ref]; k++) {
+            lits.push(from[ref + HEADER + k]);
+        }
+        return allocClause(lits, from[ref + 1]);
+    }
+
+    /**
+     * @return TRUE, FALSE, or UNASSIGNED when conflict limit is reached.
+     */
+    private byte search(long conflictLimit) {
+        long conflictCount = 0;
+        while (true) {
+            int conflict = propagate();
+            if (conflict != NONE) {
+                conflicts++;
+                conflictCount++;
+                if (decisionLevel() == 0) {
+                    unsat = true;
+                    return FALSE;
+                }
+                int backtrackLevel = analyze(conflict);
+                int lbd = computeLbd(learnt);
+                cancelUntil(backtrackLevel);
+                if (learnt.size() == 1) {
+                    assign(learnt.get(0), NONE);
+                } else {
+                    int ref = allocClause(learnt, lbd);
+                    learnts.push(ref);
+                    attach(ref);
+                    assign(learnt.get(0), ref);
+                }
+                varInc /= VAR_DECAY;
+            } else {
+                if (conflictCount >= conflictLimit || stopped) {
+                    return UNASSIGNED;
+                }
+                int next = NONE;
+                while (decisionLevel() < assumptions.length) {
+                    int p = assumptions[decisionLevel()];
+                    if (value(p) == TRUE) {
+                        // Already holds, an empty level keeps levels in line with assumptions.
+                        trailLim.push(trail.size());
+                    } else if (value(p) == FALSE) {
+                        // Unsatisfiable under the assumptions only.
+                        return FALSE;
+                    } else {
+                        next = p;
+                        break;
+                    }
+                }
+                if (next == NONE) {
+                    next = pickBranchLiteral();
+                    if (next == NONE) {
+                        return TRUE;
+                    }
+                }
+                decisions++;
+                trailLim.push(trail.size());
+                assign(next, NONE);
+            }
+        }
+    }
+
+    /**
+     * Finite Luby sequence: 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, ...
+     */
+    private static long luby(int x) {
+        int size = 1;
+        int seq = 0;
+        while (size < x + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != x) {
+            size = (size - 1) >> 1;
+            seq--;
+            x = x % size;
+        }
+        return 1L << seq;
+    }
+
+    boolean solve() {
+        return solve(new int[0]);
+    }
+
+    /**
+     * Solves with all the given literals assumed true. Clauses learnt never
+     * depend on the assumptions, so they are kept for the next solve.
+     *
+     * @return true if satisfiable, the model is then available from modelValue.
+     */
+    boolean solve(int[] assumptions) {
+        model = null;
+        refuted = unsat;
+        if (unsat) {
+            return false;
+        }
+        this.assumptions = new int[assumptions.length];
+        for (int i = 0; i < assumptions.length; i++) {
+            this.assumptions[i] = toInternal(assumptions[i]);
+        }
+        maxLearnts = Math.max(maxLearnts, clauses.size() / 3);
+        byte status = UNASSIGNED;
+        for (int restart = 0; status == UNASSIGNED && !stopped; restart++) {
+            status = search(luby(restart) * RESTART_UNIT);
+            if (status == UNASSIGNED) {
+                cancelUntil(0);
+                if (learnts.size() >= maxLearnts) {
+                    reduceLearnts();
+                    maxLearnts += maxLearnts / 10;
+                }
+            }
+        }
+        if (status == TRUE) {
+            model = Arrays.copyOf(assigns, numVariables + 1);
+        }
+        cancelUntil(0);
+        stopped = false;
+        refuted = status == FALSE;
+        return status == TRUE;
+    }
+
+    /**
+     * @return whether the last solve proved there is no model, under its assumptions.
+     */
+    boolean refuted() {
+        return refuted;
+    }
+
+    /**
+     * Makes the running solve, or the next one when none is running, return
+     * false as soon as it next decides. Safe to call from any thread.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return value of the variable in the last model found.
+     */
+    boolean modelValue(int variable) {
+        return model[variable] == TRUE;
+    }
+}
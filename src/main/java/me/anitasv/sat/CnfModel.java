@@ -1,260 +1,183 @@
 package me.anitasv.sat;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class CnfModel implements SatModel {
 
     // All these expressions must be simultaneously be true
     private int variableIndex = 0;
-    private long numClauses = 0;
 
-    private final String title;
-    private final PrintWriter printWriter;
+    private final DimacsWriter dimacsWriter;
+    private final File satInput;
     private final String fileName;
 
     private final String satSolverPath;
-    private final File headFile;
-    private final File tailFile;
+    private final SolverProtocol solverProtocol;
+    private final CardinalityEncoding cardinalityEncoding;
+    private final ExactlyOneStrategy exactlyOneStrategy;
+
+    // Only when clauses are piped to an already running solver.
+    private final Process pipedProcess;
+    private final FutureTask<byte[]> pipedOutput;
+
+    // Solver process of the running solve, so another thread can stop it.
+    private volatile Process runningProcess;
+    private volatile boolean stopped = false;
+    // Whether the last solve's solver reported UNSAT.
+    private boolean provedUnsat = false;
 
     /**
      * Writes the clauses to the file as it gets excecuted incrementally to avoid
      * taking too much JVM space.
      *
-     * Will create two files:
-     *   fileName.head
-     *   fileName.tail
-     *
-     * To finish writing call close() function.
-     *
-     * Make sure to call
-     *  `cat $fileName.head $fileName.tail > $fileName`
-     *
-     * once done before calling your SAT solver.
+     * Will create a single temp file fileName*.cnf, whose problem line is
+     * filled in by the close() function.
      */
     public CnfModel(String title,
                     String fileName,
                     String satSolverPath) throws IOException {
-
-        this.tailFile = File.createTempFile(fileName, ".tail");
-        this.headFile = File.createTempFile(fileName, ".head");
-        FileOutputStream tailStream = new FileOutputStream(tailFile);
-        this.printWriter = new PrintWriter(tailStream, true, StandardCharsets.UTF_8);
-        this.fileName = fileName;
-        this.title = title;
-        this.satSolverPath = satSolverPath;
-    }
-
-    private void writeClause(int[] literals) {
-        StringBuilder line = new StringBuilder();
-        for (int c : literals) {
-            line.append(c);
-            line.append(" ");
-        }
-        line.append("0");
-        printWriter.println(line);
-        ++numClauses;
-    }
-
-    private void addExactlyOneMyOG(int[] literals) {
-        if (literals.length == 1) {
-            writeClause(literals);
-            return;
-        }
-        // Tseitin Transform
-        int[] terms = new int[literals.length];
-        for (int i = 0; i < literals.length; i++) {
-            terms[i] = newVariable("ignore");
-        }
-
-        writeClause(terms);
-
-        for (int i = 0; i < terms.length; i++) {
-            int[] xCons = new int[1 + literals.length];
-            xCons[0] = terms[i];
-            for (int j = 0; j < literals.length; j++) {
-                xCons[1 + j] = i == j ? -literals[j] : literals[j];
-            }
-            writeClause(xCons);
-
-            for (int j = 0; j < literals.length; j++) {
-                writeClause(new int[]{-terms[i], (i == j ? literals[j] : -literals[j])});
-            }
-        }
-    }
-
-    private void addExactlyOneComb(int[] literals) {
-        writeClause(literals);
-
-        for (int i = 0; i < literals.length - 1; i++) {
-            for (int j = i + 1; j < literals.length; j++) {
-                writeClause(new int[]{-literals[i], -literals[j]});
-            }
-        }
+        this(title, fileName, satSolverPath,
+                SolverProtocol.MINISAT,
+                CardinalityEncoding.TOTALIZER,
+                ExactlyOneStrategy.DEFAULT);
     }
 
-    interface BaseExpr {
-        BaseExpr not();
-    }
-    record Constant (boolean value) implements BaseExpr {
-        @Override
-        public BaseExpr not() {
-            return new Constant(!value);
-        }
+    public CnfModel(String title,
+                    String fileName,
+                    String satSolverPath,
+                    SolverProtocol solverProtocol,
+                    CardinalityEncoding cardinalityEncoding,
+                    ExactlyOneStrategy exactlyOneStrategy) throws IOException {
+        this(File.createTempFile(fileName, ".cnf"), title, fileName,
+                satSolverPath, solverProtocol,
+                cardinalityEncoding, exactlyOneStrategy);
     }
-    record Literal(int literal) implements BaseExpr {
-        @Override
-        public BaseExpr not() {
-            return new Literal(-literal);
-        }
 
+    private CnfModel(File satInput,
+                     String title,
+                     String fileName,
+                     String satSolverPath,
+                     SolverProtocol solverProtocol,
+                     CardinalityEncoding cardinalityEncoding,
+                     ExactlyOneStrategy exactlyOneStrategy) throws IOException {
+        this(DimacsWriter.toFile(satInput, title), satInput, fileName,
+                satSolverPath, solverProtocol,
+                cardinalityEncoding, exactlyOneStrategy,
+                null, null);
     }
 
-    private BaseExpr genericAnd(BaseExpr... expr) {
-        boolean constAnd = true;
-        List<Literal> literalExpr = new ArrayList<>();
-        for (BaseExpr exp : expr) {
-            if (exp instanceof Constant c) {
-                constAnd = constAnd && (c.value);
-            } else if (exp instanceof Literal l) {
-                literalExpr.add(l);
-            }
-        }
-
-        if (!constAnd) {
-            return new Constant(false);
-        }
-
-        int[] allLiterals = literalExpr.stream()
-                .mapToInt(Literal::literal)
-                .toArray();
-
-        return new Literal(andLiteral(allLiterals));
+    private CnfModel(DimacsWriter dimacsWriter,
+                     File satInput,
+                     String fileName,
+                     String satSolverPath,
+                     SolverProtocol solverProtocol,
+                     CardinalityEncoding cardinalityEncoding,
+                     ExactlyOneStrategy exactlyOneStrategy,
+                     Process pipedProcess,
+                     FutureTask<byte[]> pipedOutput) {
+        this.dimacsWriter = dimacsWriter;
+        this.satInput = satInput;
+        this.fileName = fileName;
+        this.satSolverPath = satSolverPath;
+        this.solverProtocol = solverProtocol;
+        this.cardinalityEncoding = cardinalityEncoding;
+        this.exactlyOneStrategy = exactlyOneStrategy;
+        this.pipedProcess = pipedProcess;
+        this.pipedOutput = pipedOutput;
+        // A piped solver runs from the start, so stopSearch() can end it while formulating.
+        this.runningProcess = pipedProcess;
     }
 
-    private BaseExpr genericOr(BaseExpr... expr) {
-        boolean constOr = false;
-        List<Literal> literalExpr = new ArrayList<>();
-        for (BaseExpr exp : expr) {
-            if (exp instanceof Constant c) {
-                constOr = constOr || (c.value);
-            } else if (exp instanceof Literal l) {
-                literalExpr.add(l);
-            }
-        }
-
-        if (constOr) {
-            return new Constant(true);
+    /**
+     * Starts the SAT solver right away and streams clauses to its stdin as they
+     * get added, so the solver parses while the problem is being formulated.
+     * Nothing is written to disk.
+     *
+     * The problem line comes before any clause, so either the counts have to be
+     * known up front, for example from formulating once on {@link #counting},
+     * or the solver has to accept input without a problem line.
+     *
+     * @param numVariables exact number of variables, or -1 to leave out the problem line.
+     * @param numClauses   exact number of clauses, or -1 to leave out the problem line.
+     */
+    public static CnfModel piped(String title,
+                                 String satSolverPath,
+                                 SolverProtocol solverProtocol,
+                                 CardinalityEncoding cardinalityEncoding,
+                                 ExactlyOneStrategy exactlyOneStrategy,
+                                 int numVariables,
+                                 long numClauses) throws IOException {
+        ProcessBuilder satSolver = switch (solverProtocol) {
+            case MINISAT -> new ProcessBuilder(satSolverPath, "/dev/stdin", "/dev/stdout");
+            case COMPETITION -> new ProcessBuilder(satSolverPath);
+        };
+        satSolver.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = satSolver.start();
+
+        // Solver may print while it is still parsing, so keep draining its stdout.
+        FutureTask<byte[]> output = new FutureTask<>(
+                () -> process.getInputStream().readAllBytes());
+        Thread drainer = new Thread(output, "sat-solver-stdout");
+        drainer.setDaemon(true);
+        drainer.start();
+
+        DimacsWriter writer;
+        try {
+            writer = DimacsWriter.toStream(
+                    Channels.newChannel(process.getOutputStream()), title,
+                    numVariables, numClauses);
+        } catch (IOException | RuntimeException e) {
+            process.destroy();
+            throw e;
         }
-
-        int[] allLiterals = literalExpr.stream()
-                .mapToInt(Literal::literal)
-                .toArray();
-
-        return new Literal(orLiteral(allLiterals));
+        return new CnfModel(writer, null, null,
+                satSolverPath, solverProtocol,
+                cardinalityEncoding, exactlyOneStrategy,
+                process, output);
     }
 
-    private int andLiteral(int... literals) {
-        int output = newVariable("{ignore}");
-        int[] allTerms = new int[1 + literals.length];
-        allTerms[0] = output;
-        for (int i = 0; i < literals.length; i++) {
-            allTerms[1 + i] =-literals[i];
-        }
-        writeClause(allTerms);
-        for (int i = 0; i < literals.length; i++) {
-            writeClause(new int[]{-output, literals[i]});
-        }
-        return output;
+    /**
+     * A model which writes nothing and can't be solved, it only counts the
+     * variables and clauses the same encodings would produce.
+     */
+    public static CnfModel counting(CardinalityEncoding cardinalityEncoding,
+                                    ExactlyOneStrategy exactlyOneStrategy) {
+        return new CnfModel(DimacsWriter.counting(), null, null,
+                null, null,
+                cardinalityEncoding, exactlyOneStrategy,
+                null, null);
     }
 
-    private int orLiteral(int... literals) {
-        int output = newVariable("{ignore}");
-        int[] allTerms = new int[1 + literals.length];
-        allTerms[0] = -output;
-        for (int i = 0; i < literals.length; i++) {
-            allTerms[1 + i] =literals[i];
-        }
-        writeClause(allTerms);
-        for (int i = 0; i < literals.length; i++) {
-            writeClause(new int[]{output, -literals[i]});
-        }
-        return output;
+    public int numVariables() {
+        return variableIndex;
     }
 
-
-    // https://mathb.in/77204
-    private void addExactlyOneLinear(int[] literals) {
-        if (literals.length == 0) {
-            throw new IllegalArgumentException("addExactlyOneLinear: At least one literal is expected.");
-        }
-
-        List<BaseExpr[]> groups = new ArrayList<>();
-        // Grouping by 1 :D
-        for (int literal : literals) {
-            groups.add(new BaseExpr[]{new Literal(literal),
-                    new Constant(true),
-                    });
-        }
-        while (groups.size() > 1) {
-            List<BaseExpr[]> priorGroups = groups;
-            groups = new ArrayList<>();
-            for (int i = 0; i + 1 < priorGroups.size(); i+=2) {
-                BaseExpr[] x = priorGroups.get(i);
-                BaseExpr[] y = priorGroups.get(i + 1);
-                BaseExpr[] z = new BaseExpr[2];
-                z[0] = genericOr(
-                        genericAnd(x[1], x[0].not(), y[0], y[1]),  // 1011
-                        genericAnd(x[1], x[0], y[1], y[0].not())); // 1110
-
-                z[1] = genericOr(z[0],
-                        genericAnd(x[1], x[0].not(), y[1], y[0].not())); // 1010
-                groups.add(z);
-            }
-            if (priorGroups.size() % 2 == 1) {
-                groups.add(priorGroups.get(priorGroups.size() - 1));
-            }
-        }
-        BaseExpr e = groups.get(0)[0];
-        if (e instanceof Constant c) {
-            throw new IllegalStateException("No idea how this happened :(");
-        } else if (e instanceof Literal l) {
-            writeClause(new int[]{l.literal});
-        } else {
-            throw new IllegalStateException("addExactlyOneLinear: case missing!!");
-        }
+    public long numClauses() {
+        return dimacsWriter.numClauses();
     }
 
     public void addExactlyOne(int[] literals) {
-        addExactlyOneMyOG(literals);
+        exactlyOneStrategy.encodingFor(literals.length)
+                .addExactlyOne(this, literals);
     }
 
     public void addBoolOr(int[] lhs) {
-        writeClause(lhs);
+        dimacsWriter.writeClause(lhs);
     }
 
     @Override
     public void addBoolAndImplies(int[] literals, int literal) {
-        int andCond = andLiteral(literals);
+        int andCond = Gates.and(this, literals);
         addBoolOr(new int[]{literal, -andCond});
     }
 
     public void close() throws IOException {
-        printWriter.close();
-
-        FileOutputStream headStream = new FileOutputStream(headFile);
-        PrintWriter headWriter = new PrintWriter(headStream, true, StandardCharsets.UTF_8);
-        headWriter.println("c");
-        headWriter.println("c Title: " + title);
-        headWriter.println("c");
-        // Due to this header I cannot build an incremental writer which doesn't take exce
-        headWriter.println("p cnf " + variableIndex + " " + numClauses);
-        headWriter.close();
+        dimacsWriter.close(variableIndex);
     }
 
     public int newVariable(String name) {
@@ -262,37 +185,20 @@ public class CnfModel implements SatModel {
     }
 
     @Override
-    public Set<Integer> solve() {
-        try {
-            this.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    public SatAssignment solve() {
+        if (satSolverPath == null) {
+            throw new UnsupportedOperationException("Counting model can't be solved.");
         }
-        System.out.println("Files Written.");
-        ProcessBuilder concat = new ProcessBuilder("/bin/cat",
-                headFile.getAbsolutePath(),
-                tailFile.getAbsolutePath());
-
-        File satInput;
+        provedUnsat = false;
         try {
-            satInput = File.createTempFile(this.fileName, ".cnf");
+            this.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        concat.redirectOutput(satInput);
-
-        try {
-            Process concatProcess = concat.start();
-            System.out.println("Waiting for concat.");
-            int concatExit = concatProcess.waitFor();
-            if (concatExit != 0) {
-                throw new RuntimeException("/bin/cat failed with status: " + concatExit);
-            }
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException(e);
+        if (pipedProcess != null) {
+            return solvePiped();
         }
-        System.out.println("File Concatenated.");
-
+        System.out.println("File Written.");
 
         File satOutput;
         try {
@@ -303,43 +209,103 @@ public class CnfModel implements SatModel {
 
         System.out.println("SAT input: " + satInput.getAbsolutePath());
         System.out.println("SAT output: " + satOutput.getAbsolutePath());
-        ProcessBuilder miniSat = new ProcessBuilder(satSolverPath,
-                satInput.getAbsolutePath(),
-                satOutput.getAbsolutePath())
-                .inheritIO();
+        try {
+            return solveFiles(satOutput);
+        } finally {
+            // Both are temp files, nothing reads them after this.
+            satInput.delete();
+            satOutput.delete();
+        }
+    }
+
+    private SatAssignment solveFiles(File satOutput) {
+        ProcessBuilder satSolver = switch (solverProtocol) {
+            case MINISAT -> new ProcessBuilder(satSolverPath,
+                    satInput.getAbsolutePath(),
+                    satOutput.getAbsolutePath())
+                    .inheritIO();
+            case COMPETITION -> new ProcessBuilder(satSolverPath,
+                    satInput.getAbsolutePath())
+                    .inheritIO()
+                    .redirectOutput(satOutput);
+        };
 
         try {
-            Process miniProcess = miniSat.start();
+            Process satProcess = satSolver.start();
+            runningProcess = satProcess;
+            if (stopped) {
+                satProcess.destroy();
+            }
             System.out.println("Waiting for SAT solver.");
-            miniProcess.waitFor();
+            satProcess.waitFor();
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         }
         System.out.println("SAT solver done");
+        if (stopped) {
+            return null;
+        }
 
-        String fileContents;
+        System.out.println("Reading solution.");
+        SolverOutput.Result result;
         try {
-            fileContents = Files.readString(satOutput.toPath());
+            result = SolverOutput.read(satOutput, variableIndex);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        System.out.println("Reading solution.");
-
-        Set<Integer> solution = new HashSet<>();
+        System.out.println("Done parsing solution.");
+        provedUnsat = result.status() == SolverOutput.Status.UNSATISFIABLE;
+        return result.assignment();
+    }
 
-        String[] line2 = fileContents.split("\n")[1].split(" ");
-        for (String var : line2) {
-            int number = Integer.parseInt(var);
-            if (number != 0) {
-                solution.add(number);
-            }
+    private SatAssignment solvePiped() {
+        runningProcess = pipedProcess;
+        if (stopped) {
+            pipedProcess.destroy();
+        }
+        System.out.println("Clauses piped, waiting for SAT solver.");
+        byte[] output;
+        try {
+            output = pipedOutput.get();
+            pipedProcess.waitFor();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println("SAT solver done");
+        if (stopped) {
+            return null;
         }
+        SolverOutput.Result result = SolverOutput.parse(ByteBuffer.wrap(output), variableIndex);
         System.out.println("Done parsing solution.");
-        return solution;
+        provedUnsat = result.status() == SolverOutput.Status.UNSATISFIABLE;
+        return result.assignment();
+    }
+
+    @Override
+    public boolean provedUnsat() {
+        return provedUnsat;
+    }
+
+    /**
+     * Destroys the solver process, for a piped model also before solve(),
+     * say when formulating it failed.
+     */
+    @Override
+    public void stopSearch() {
+        stopped = true;
+        Process process = runningProcess;
+        if (process != null) {
+            process.destroy();
+        }
     }
 
     @Override
     public void addExactly(int[] selectCell, int sum) {
-        throw new UnsupportedOperationException("addExactly: TODO");
+        cardinalityEncoding.addExactly(this, selectCell, sum);
+    }
+
+    @Override
+    public void addAtMost(int[] literals, int k) {
+        cardinalityEncoding.addAtMost(this, literals, k);
     }
 }
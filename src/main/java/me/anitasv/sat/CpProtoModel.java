@@ -0,0 +1,217 @@
+package me.anitasv.sat;
+
+import com.google.ortools.sat.*;
+
+/**
+ * Same model as {@link GoogleModel}, but written straight into the
+ * CpModelProto builder with the proto's int literals, variable v being index
+ * v - 1 and its negation -v. No BoolVar or Literal wrapper is made per
+ * variable or per constraint, which is real time and heap when formulating
+ * 100x100. Variable names are dropped for the same reason.
+ *
+ * Scopes work like in GoogleModel, with an enforcement literal per push().
+ */
+public class CpProtoModel implements IncrementalSatModel {
+
+    private final CpModel model = new CpModel();
+    private final CpModelProto.Builder proto = model.getBuilder();
+
+    private final IntVec scopes = new IntVec();
+
+    private final SolverParameters parameters;
+
+    // Stops the running solve from another thread.
+    private final CpSolveGuard guard = new CpSolveGuard();
+    private boolean provedUnsat = false;
+
+    public CpProtoModel() {
+        this(SolverParameters.DEFAULT);
+    }
+
+    public CpProtoModel(SolverParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    private static int toProto(int literal) {
+        return literal > 0 ? literal - 1 : literal;
+    }
+
+    private ConstraintProto.Builder newConstraint() {
+        ConstraintProto.Builder constraint = proto.addConstraintsBuilder();
+        if (!scopes.isEmpty()) {
+            constraint.addEnforcementLiteral(toProto(scopes.last()));
+        }
+        return constraint;
+    }
+
+    @Override
+    public int newVariable(String name) {
+        proto.addVariablesBuilder().addDomain(0).addDomain(1);
+        return proto.getVariablesCount();
+    }
+
+    @Override
+    public void addBoolOr(int[] literals) {
+        BoolArgumentProto.Builder boolOr = newConstraint().getBoolOrBuilder();
+        for (int literal : literals) {
+            boolOr.addLiterals(toProto(literal));
+        }
+    }
+
+    @Override
+    public void addBoolAndImplies(int[] literals, int literal) {
+        ConstraintProto.Builder constraint = newConstraint();
+        for (int pre : literals) {
+            constraint.addEnforcementLiteral(toProto(pre));
+        }
+        constraint.getBoolAndBuilder().addLiterals(toProto(literal));
+    }
+
+    @Override
+    public void addExactlyOne(int[] literals) {
+        if (scopes.isEmpty()) {
+            BoolArgumentProto.Builder exactlyOne = newConstraint().getExactlyOneBuilder();
+            for (int literal : literals) {
+                exactlyOne.addLiterals(toProto(literal));
+            }
+        } else {
+            // Exactly one doesn't support enforcement literals, but linear does.
+            addExactly(literals, 1);
+        }
+    }
+
+    /**
+     * A linear constraint only takes variables, so not x is written as 1 - x.
+     */
+    @Override
+    public void addExactly(int[] selectCell, int sum) {
+        LinearConstraintProto.Builder linear = newConstraint().getLinearBuilder();
+        long rhs = sum;
+        for (int literal : selectCell) {
+            linear.addVars(Math.abs(literal) - 1);
+            if (literal > 0) {
+                linear.addCoeffs(1);
+            } else {
+                linear.addCoeffs(-1);
+                rhs--;
+            }
+        }
+        linear.addDomain(rhs).addDomain(rhs);
+    }
+
+    @Override
+    public void addAtMost(int[] literals, int k) {
+        LinearConstraintProto.Builder linear = newConstraint().getLinearBuilder();
+        long rhs = k;
+        for (int literal : literals) {
+            linear.addVars(Math.abs(literal) - 1);
+            if (literal > 0) {
+                linear.addCoeffs(1);
+            } else {
+                linear.addCoeffs(-1);
+                rhs--;
+            }
+        }
+        linear.addDomain(Long.MIN_VALUE).addDomain(rhs);
+    }
+
+    @Override
+    public void addAllowedAssignments(int[] variables, int[][] tuples) {
+        if (!scopes.isEmpty()) {
+            // Tables don't take enforcement literals, clauses do.
+            IncrementalSatModel.super.addAllowedAssignments(variables, tuples);
+            return;
+        }
+        TableConstraintProto.Builder table = proto.addConstraintsBuilder().getTableBuilder();
+        for (int variable : variables) {
+            table.addVars(variable - 1);
+        }
+        for (int[] tuple : tuples) {
+            for (int value : tuple) {
+                table.addValues(value);
+            }
+        }
+    }
+
+    @Override
+    public void addDecisionStrategy(int[] variables, BranchValue value) {
+        DecisionStrategyProto.Builder strategy = proto.addSearchStrategyBuilder();
+        for (int variable : variables) {
+            strategy.addVariables(variable - 1);
+        }
+        strategy.setVariableSelectionStrategy(DecisionStrategyProto.VariableSelectionStrategy.CHOOSE_FIRST)
+                .setDomainReductionStrategy(value == BranchValue.TRUE_FIRST
+                        ? DecisionStrategyProto.DomainReductionStrategy.SELECT_MAX_VALUE
+                        : DecisionStrategyProto.DomainReductionStrategy.SELECT_MIN_VALUE);
+    }
+
+    @Override
+    public void push() {
+        scopes.push(newVariable("scope_" + scopes.size()));
+    }
+
+    @Override
+    public void pop() {
+        if (scopes.isEmpty()) {
+            throw new IllegalStateException("pop() without a matching push()");
+        }
+        int scope = scopes.pop();
+        addBoolOr(new int[]{-scope});
+    }
+
+    @Override
+    public SatAssignment solve(int[] assumptions) {
+        proto.clearAssumptions();
+        for (int i = 0; i < scopes.size(); i++) {
+            proto.addAssumptions(toProto(scopes.get(i)));
+        }
+        for (int assumption : assumptions) {
+            proto.addAssumptions(toProto(assumption));
+        }
+        try {
+            return solveModel();
+        } finally {
+            proto.clearAssumptions();
+        }
+    }
+
+    private SatAssignment solveModel() {
+        CpSolver cpSolver = GoogleModel.newCpSolver(parameters);
+        provedUnsat = false;
+        if (!guard.start(cpSolver)) {
+            return null;
+        }
+        CpSolverStatus status;
+        try {
+            status = cpSolver.solve(model);
+        } finally {
+            guard.finish();
+        }
+        provedUnsat = status == CpSolverStatus.INFEASIBLE;
+        if (status == CpSolverStatus.UNKNOWN) {
+            System.out.println("CP-SAT stopped without an answer, time limit reached?");
+        }
+        if (status != CpSolverStatus.OPTIMAL && status != CpSolverStatus.FEASIBLE) {
+            return null;
+        }
+        CpSolverResponse response = cpSolver.response();
+        int numVariables = proto.getVariablesCount();
+        SatAssignment trueValues = new SatAssignment(numVariables);
+        for (int v = 1; v <= numVariables; v++) {
+            if (response.getSolution(v - 1) != 0) {
+                trueValues.set(v);
+            }
+        }
+        return trueValues;
+    }
+
+    @Override
+    public boolean provedUnsat() {
+        return provedUnsat;
+    }
+
+    @Override
+    public void stopSearch() {
+        guard.stop();
+    }
+}
@@ -0,0 +1,62 @@
+package me.anitasv.sat;
+
+import com.google.ortools.sat.CpSolver;
+
+/**
+ * Lets another thread stop the CP-SAT solve of a model.
+ *
+ * CpSolver.stopSearch() is only heard once its solve() has started, so a
+ * stop keeps asking until the solve it was meant for returns. A stop with
+ * no solve running makes the next solve return right away, and each stop
+ * ends one solve only, so the model can be solved again after it.
+ */
+final class CpSolveGuard {
+
+    private static final long RETRY_MILLIS = 10;
+
+    private CpSolver running;
+    private boolean stopped = false;
+
+    /**
+     * @return false when a stop came first, the solve should not start.
+     */
+    synchronized boolean start(CpSolver cpSolver) {
+        if (stopped) {
+            stopped = false;
+            return false;
+        }
+        running = cpSolver;
+        return true;
+    }
+
+    synchronized void finish() {
+        running = null;
+        stopped = false;
+        notifyAll();
+    }
+
+    void stop() {
+        CpSolver cpSolver;
+        synchronized (this) {
+            stopped = true;
+            cpSolver = running;
+        }
+        while (cpSolver != null) {
+            cpSolver.stopSearch();
+            synchronized (this) {
+                if (running != cpSolver) {
+                    return;
+                }
+                try {
+                    wait(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (running != cpSolver) {
+                    return;
+                }
+            }
+        }
+    }
+}
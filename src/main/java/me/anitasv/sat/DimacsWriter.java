@@ -0,0 +1,187 @@
+package me.anitasv.sat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a DIMACS cnf in a single pass.
+ *
+ * The problem line needs the number of variables and clauses which are only
+ * known at the end. When writing to a file a fixed width problem line is
+ * reserved up front and overwritten in place by close(). When writing to a
+ * stream, like the stdin of a solver, the counts have to be known up front
+ * or the problem line is left out.
+ *
+ * Clauses are formatted straight into a direct buffer which is handed to the
+ * channel only when full, so writing a clause doesn't allocate or make a syscall.
+ */
+final class DimacsWriter {
+
+    // Wide enough for Integer.MAX_VALUE variables and Long.MAX_VALUE clauses.
+    private static final int VARIABLES_WIDTH = 10;
+    private static final int CLAUSES_WIDTH = 19;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // "-2147483647 " is the longest a literal can get.
+    private static final int MAX_LITERAL_BYTES = 12;
+
+    private final String target;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[MAX_LITERAL_BYTES];
+
+    // Where the problem line is to be patched, -1 if not patched.
+    private final long headerPosition;
+    // Counts promised in the problem line, -1 if not promised.
+    private final int expectedVariables;
+    private final long expectedClauses;
+
+    private long numClauses = 0;
+
+    private DimacsWriter(String target,
+                         WritableByteChannel channel,
+                         long headerPosition,
+                         int expectedVariables,
+                         long expectedClauses) {
+        this.target = target;
+        this.channel = channel;
+        this.buffer = channel == null ? null : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.headerPosition = headerPosition;
+        this.expectedVariables = expectedVariables;
+        this.expectedClauses = expectedClauses;
+    }
+
+    /**
+     * Writes to the file, problem line is filled in by close().
+     */
+    static DimacsWriter toFile(File file, String title) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(ByteBuffer.wrap(comments(title)));
+        long headerPosition = channel.position();
+        channel.write(ByteBuffer.wrap(header(0, 0, true)));
+        return new DimacsWriter(file.toString(), channel, headerPosition, -1, -1);
+    }
+
+    /**
+     * Writes to a stream which can't be rewound.
+     *
+     * @param numVariables number of variables close() will be called with,
+     *                     or -1 to leave out the problem line.
+     * @param numClauses   number of clauses that will be written,
+     *                     or -1 to leave out the problem line.
+     */
+    static DimacsWriter toStream(WritableByteChannel channel, String title,
+                                 int numVariables, long numClauses) throws IOException {
+        channel.write(ByteBuffer.wrap(comments(title)));
+        boolean hasHeader = numVariables >= 0 && numClauses >= 0;
+        if (hasHeader) {
+            channel.write(ByteBuffer.wrap(header(numVariables, numClauses, false)));
+        }
+        return new DimacsWriter("stream", channel, -1,
+                hasHeader ? numVariables : -1,
+                hasHeader ? numClauses : -1);
+    }
+
+    /**
+     * Doesn't write anything, only counts clauses.
+     */
+    static DimacsWriter counting() {
+        return new DimacsWriter("counter", null, -1, -1, -1);
+    }
+
+    private static byte[] comments(String title) {
+        return ("c\nc Title: " + title + "\nc\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] header(int numVariables, long numClauses, boolean padded) {
+        String line = "p cnf "
+                + pad(Integer.toString(numVariables), padded ? VARIABLES_WIDTH : 0) + " "
+                + pad(Long.toString(numClauses), padded ? CLAUSES_WIDTH : 0) + "\n";
+        return line.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String pad(String number, int width) {
+        return number + " ".repeat(Math.max(0, width - number.length()));
+    }
+
+    void writeClause(int[] literals) {
+        ++numClauses;
+        if (channel == null) {
+            return;
+        }
+        for (int literal : literals) {
+            if (buffer.remaining() < MAX_LITERAL_BYTES) {
+                drain();
+            }
+            putInt(literal);
+            buffer.put((byte) ' ');
+        }
+        if (buffer.remaining() < 2) {
+            drain();
+        }
+        buffer.put((byte) '0');
+        buffer.put((byte) '\n');
+    }
+
+    private void putInt(int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed writing clauses to " + target, e);
+        }
+        buffer.clear();
+    }
+
+    long numClauses() {
+        return numClauses;
+    }
+
+    /**
+     * Flushes all clauses and fills in the problem line.
+     */
+    void close(int numVariables) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            drain();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (headerPosition >= 0) {
+            ((FileChannel) channel).write(
+                    ByteBuffer.wrap(header(numVariables, numClauses, true)), headerPosition);
+        }
+        channel.close();
+        if (expectedClauses >= 0 &&
+                (expectedVariables != numVariables || expectedClauses != numClauses)) {
+            throw new IllegalStateException("Problem line promised " + expectedVariables +
+                    " variables and " + expectedClauses + " clauses, but got " +
+                    numVariables + " and " + numClauses);
+        }
+    }
+}
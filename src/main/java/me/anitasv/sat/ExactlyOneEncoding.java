@@ -0,0 +1,336 @@
+package me.anitasv.sat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CNF encodings of the constraint "exactly one of the literals is true".
+ *
+ * Like {@link CardinalityEncoding} these only need newVariable and addBoolOr.
+ * Every one of them except TSEITIN and LINEAR is the clause "at least one"
+ * followed by an at most one encoding.
+ */
+public enum ExactlyOneEncoding {
+
+    /**
+     * One fresh term per literal standing for "only this literal is true".
+     * O(n) variables, O(n^2) clauses.
+     */
+    TSEITIN {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            int[] terms = new int[literals.length];
+            for (int i = 0; i < literals.length; i++) {
+                terms[i] = model.newVariable("{ignore}");
+            }
+
+            model.addBoolOr(terms);
+
+            for (int i = 0; i < terms.length; i++) {
+                int[] xCons = new int[1 + literals.length];
+                xCons[0] = terms[i];
+                for (int j = 0; j < literals.length; j++) {
+                    xCons[1 + j] = i == j ? -literals[j] : literals[j];
+                }
+                model.addBoolOr(xCons);
+
+                for (int j = 0; j < literals.length; j++) {
+                    model.addBoolOr(new int[]{-terms[i], (i == j ? literals[j] : -literals[j])});
+                }
+            }
+        }
+    },
+
+    /**
+     * Every pair can't be both true. No variables, O(n^2) clauses.
+     */
+    PAIRWISE {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            model.addBoolOr(literals);
+            pairwise(model, literals);
+        }
+    },
+
+    /**
+     * Pairwise merging of (exactly one, at most one) outputs,
+     * see https://mathb.in/77204
+     */
+    LINEAR {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            linear(model, literals);
+        }
+    },
+
+    /**
+     * Sequential (ladder) encoding, s_i is true if any of first i literals is true.
+     * n - 2 variables, 3n - 4 clauses, and arc consistent.
+     */
+    LADDER {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            model.addBoolOr(literals);
+            ladder(model, literals);
+        }
+    },
+
+    /**
+     * Commander encoding with groups of 3, each group gets a commander which
+     * is true iff some literal of the group is, and exactly one commander is
+     * true. About n / 2 variables and 3n clauses.
+     */
+    COMMANDER {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            commander(model, literals);
+        }
+    },
+
+    /**
+     * Chen's 2-product encoding, literals are laid out on a p x q grid and each
+     * true literal forces its row and its column. 2 sqrt(n) variables,
+     * 2n + O(sqrt(n)) clauses.
+     */
+    PRODUCT {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            model.addBoolOr(literals);
+            product(model, literals);
+        }
+    },
+
+    /**
+     * Binary encoding, each literal forces its index onto log(n) bits.
+     * log(n) variables, n log(n) clauses.
+     */
+    BINARY {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            model.addBoolOr(literals);
+            bimander(model, literals, 1);
+        }
+    },
+
+    /**
+     * Bimander encoding, pairwise within groups of 2 and binary encoding of the
+     * group index. log(n) variables, n (log(n) + 1) / 2 clauses.
+     */
+    BIMANDER {
+        @Override
+        void addExactlyOneNonTrivial(SatModel model, int[] literals) {
+            model.addBoolOr(literals);
+            bimander(model, literals, 2);
+        }
+    };
+
+    private static final int COMMANDER_GROUP = 3;
+    private static final int PRODUCT_THRESHOLD = 6;
+
+    /**
+     * Only called with at least 2 literals.
+     */
+    abstract void addExactlyOneNonTrivial(SatModel model, int[] literals);
+
+    public void addExactlyOne(SatModel model, int[] literals) {
+        if (literals.length <= 1) {
+            // Unit clause or empty clause.
+            model.addBoolOr(literals);
+            return;
+        }
+        addExactlyOneNonTrivial(model, literals);
+    }
+
+    private static void pairwise(SatModel model, int[] literals) {
+        for (int i = 0; i < literals.length - 1; i++) {
+            for (int j = i + 1; j < literals.length; j++) {
+                model.addBoolOr(new int[]{-literals[i], -literals[j]});
+            }
+        }
+    }
+
+    private static void ladder(SatModel model, int[] literals) {
+        int n = literals.length;
+        int prev = literals[0];
+        for (int i = 1; i < n; i++) {
+            // prev is true iff some literal before i is true.
+            model.addBoolOr(new int[]{-prev, -literals[i]});
+            if (i < n - 1) {
+                int s = model.newVariable("{ignore}");
+                model.addBoolOr(new int[]{-prev, s});
+                model.addBoolOr(new int[]{-literals[i], s});
+                prev = s;
+            }
+        }
+    }
+
+    private static void commander(SatModel model, int[] literals) {
+        if (literals.length <= COMMANDER_GROUP + 1) {
+            model.addBoolOr(literals);
+            pairwise(model, literals);
+            return;
+        }
+        int groups = (literals.length + COMMANDER_GROUP - 1) / COMMANDER_GROUP;
+        int[] commanders = new int[groups];
+        for (int g = 0; g < groups; g++) {
+            int from = g * COMMANDER_GROUP;
+            int to = Math.min(from + COMMANDER_GROUP, literals.length);
+            int c = model.newVariable("{ignore}");
+            commanders[g] = c;
+
+            int[] some = new int[1 + to - from];
+            some[0] = -c;
+            for (int i = from; i < to; i++) {
+                some[1 + i - from] = literals[i];
+                model.addBoolOr(new int[]{c, -literals[i]});
+                for (int j = i + 1; j < to; j++) {
+                    model.addBoolOr(new int[]{-literals[i], -literals[j]});
+                }
+            }
+            model.addBoolOr(some);
+        }
+        commander(model, commanders);
+    }
+
+    private static void product(SatModel model, int[] literals) {
+        int n = literals.length;
+        if (n <= PRODUCT_THRESHOLD) {
+            pairwise(model, literals);
+            return;
+        }
+        int p = (int) Math.ceil(Math.sqrt(n));
+        int q = (n + p - 1) / p;
+        int[] rows = new int[q];
+        int[] cols = new int[p];
+        for (int i = 0; i < q; i++) {
+            rows[i] = model.newVariable("{ignore}");
+        }
+        for (int j = 0; j < p; j++) {
+            cols[j] = model.newVariable("{ignore}");
+        }
+        for (int k = 0; k < n; k++) {
+            model.addBoolOr(new int[]{-literals[k], rows[k / p]});
+            model.addBoolOr(new int[]{-literals[k], cols[k % p]});
+        }
+        product(model, rows);
+        product(model, cols);
+    }
+
+    private static void bimander(SatModel model, int[] literals, int groupSize) {
+        int groups = (literals.length + groupSize - 1) / groupSize;
+        int bits = 32 - Integer.numberOfLeadingZeros(groups - 1);
+        int[] b = new int[bits];
+        for (int j = 0; j < bits; j++) {
+            b[j] = model.newVariable("{ignore}");
+        }
+        for (int i = 0; i < literals.length; i++) {
+            int g = i / groupSize;
+            for (int k = i + 1; k < Math.min((g + 1) * groupSize, literals.length); k++) {
+                model.addBoolOr(new int[]{-literals[i], -literals[k]});
+            }
+            for (int j = 0; j < bits; j++) {
+                model.addBoolOr(new int[]{-literals[i], ((g >> j) & 1) == 1 ? b[j] : -b[j]});
+            }
+        }
+    }
+
+    interface BaseExpr {
+        BaseExpr not();
+    }
+
+    record Constant(boolean value) implements BaseExpr {
+        @Override
+        public BaseExpr not() {
+            return new Constant(!value);
+        }
+    }
+
+    record Literal(int literal) implements BaseExpr {
+        @Override
+        public BaseExpr not() {
+            return new Literal(-literal);
+        }
+    }
+
+    private static BaseExpr genericAnd(SatModel model, BaseExpr... expr) {
+        boolean constAnd = true;
+        List<Literal> literalExpr = new ArrayList<>();
+        for (BaseExpr exp : expr) {
+            if (exp instanceof Constant c) {
+                constAnd = constAnd && (c.value);
+            } else if (exp instanceof Literal l) {
+                literalExpr.add(l);
+            }
+        }
+
+        if (!constAnd) {
+            return new Constant(false);
+        }
+
+        int[] allLiterals = literalExpr.stream()
+                .mapToInt(Literal::literal)
+                .toArray();
+
+        return new Literal(Gates.and(model, allLiterals));
+    }
+
+    private static BaseExpr genericOr(SatModel model, BaseExpr... expr) {
+        boolean constOr = false;
+        List<Literal> literalExpr = new ArrayList<>();
+        for (BaseExpr exp : expr) {
+            if (exp instanceof Constant c) {
+                constOr = constOr || (c.value);
+            } else if (exp instanceof Literal l) {
+                literalExpr.add(l);
+            }
+        }
+
+        if (constOr) {
+            return new Constant(true);
+        }
+
+        int[] allLiterals = literalExpr.stream()
+                .mapToInt(Literal::literal)
+                .toArray();
+
+        return new Literal(Gates.or(model, allLiterals));
+    }
+
+    // https://mathb.in/77204
+    private static void linear(SatModel model, int[] literals) {
+        List<BaseExpr[]> groups = new ArrayList<>();
+        // Grouping by 1 :D
+        for (int literal : literals) {
+            groups.add(new BaseExpr[]{new Literal(literal),
+                    new Constant(true),
+                    });
+        }
+        while (groups.size() > 1) {
+            List<BaseExpr[]> priorGroups = groups;
+            groups = new ArrayList<>();
+            for (int i = 0; i + 1 < priorGroups.size(); i+=2) {
+                BaseExpr[] x = priorGroups.get(i);
+                BaseExpr[] y = priorGroups.get(i + 1);
+                BaseExpr[] z = new BaseExpr[2];
+                z[0] = genericOr(model,
+                        genericAnd(model, x[1], x[0].not(), y[0], y[1]),  // 1011
+                        genericAnd(model, x[1], x[0], y[1], y[0].not())); // 1110
+
+                z[1] = genericOr(model, z[0],
+                        genericAnd(model, x[1], x[0].not(), y[1], y[0].not())); // 1010
+                groups.add(z);
+            }
+            if (priorGroups.size() % 2 == 1) {
+                groups.add(priorGroups.get(priorGroups.size() - 1));
+            }
+        }
+        BaseExpr e = groups.get(0)[0];
+        if (e instanceof Constant c) {
+            throw new IllegalStateException("No idea how this happened :(");
+        } else if (e instanceof Literal l) {
+            model.addBoolOr(new int[]{l.literal});
+        } else {
+            throw new IllegalStateException("addExactlyOneLinear: case missing!!");
+        }
+    }
+}
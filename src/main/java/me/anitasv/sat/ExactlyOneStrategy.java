@@ -0,0 +1,23 @@
+package me.anitasv.sat;
+
+/**
+ * Picks an {@link ExactlyOneEncoding} for every addExactlyOne call based on
+ * how many literals it has.
+ */
+@FunctionalInterface
+public interface ExactlyOneStrategy {
+
+    /**
+     * Pairwise is smallest for a handful of literals, beyond that the ladder is
+     * linear in size and still propagates as well as pairwise does.
+     */
+    ExactlyOneStrategy DEFAULT = size -> size <= 6
+            ? ExactlyOneEncoding.PAIRWISE
+            : ExactlyOneEncoding.LADDER;
+
+    ExactlyOneEncoding encodingFor(int size);
+
+    static ExactlyOneStrategy always(ExactlyOneEncoding encoding) {
+        return size -> encoding;
+    }
+}
@@ -0,0 +1,44 @@
+package me.anitasv.sat;
+
+/**
+ * Tseitin gates on top of plain clauses.
+ */
+final class Gates {
+
+    private Gates() {
+    }
+
+    /**
+     * @return new variable which is equivalent to AND of the literals.
+     */
+    static int and(SatModel model, int... literals) {
+        int output = model.newVariable("{ignore}");
+        int[] allTerms = new int[1 + literals.length];
+        allTerms[0] = output;
+        for (int i = 0; i < literals.length; i++) {
+            allTerms[1 + i] = -literals[i];
+        }
+        model.addBoolOr(allTerms);
+        for (int literal : literals) {
+            model.addBoolOr(new int[]{-output, literal});
+        }
+        return output;
+    }
+
+    /**
+     * @return new variable which is equivalent to OR of the literals.
+     */
+    static int or(SatModel model, int... literals) {
+        int output = model.newVariable("{ignore}");
+        int[] allTerms = new int[1 + literals.length];
+        allTerms[0] = -output;
+        for (int i = 0; i < literals.length; i++) {
+            allTerms[1 + i] = literals[i];
+        }
+        model.addBoolOr(allTerms);
+        for (int literal : literals) {
+            model.addBoolOr(new int[]{output, -literal});
+        }
+        return output;
+    }
+}
@@ -3,24 +3,54 @@ package me.anitasv.sat;
 import com.google.ortools.sat.*;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
-public class GoogleModel implements SatModel {
+/**
+ * Scopes are implemented with an enforcement literal per push(): constraints
+ * added within the scope are only enforced if it is true, solves assume every
+ * open one, and pop() fixes it false so presolve drops the constraints.
+ */
+public class GoogleModel implements IncrementalSatModel {
 
     private final CpModel model = new CpModel();
 
     private final List<BoolVar> variables = new ArrayList<>();
 
+    private final List<Literal> scopes = new ArrayList<>();
+
+    private final SolverParameters parameters;
+
+    // Stops the running solve from another thread.
+    private final CpSolveGuard guard = new CpSolveGuard();
+    private boolean provedUnsat = false;
+
+    public GoogleModel() {
+        this(SolverParameters.DEFAULT);
+    }
+
+    public GoogleModel(SolverParameters parameters) {
+        this.parameters = parameters;
+    }
+
     @Override
     public void addExactlyOne(int[] literals) {
-        model.addExactlyOne(getInternalLiterals(literals));
+        if (scopes.isEmpty()) {
+            model.addExactlyOne(getInternalLiterals(literals));
+        } else {
+            // Exactly one doesn't support enforcement literals, but linear does.
+            enforceInScope(model.addEquality(LinearExpr.sum(getInternalLiterals(literals)), 1));
+        }
     }
 
     @Override
     public void addBoolOr(int[] lhs) {
-        model.addBoolOr(getInternalLiterals(lhs));
+        enforceInScope(model.addBoolOr(getInternalLiterals(lhs)));
+    }
+
+    private void enforceInScope(Constraint constraint) {
+        if (!scopes.isEmpty()) {
+            constraint.onlyEnforceIf(scopes.get(scopes.size() - 1));
+        }
     }
 
     @Override
@@ -30,8 +60,9 @@ public class GoogleModel implements SatModel {
         for (int i = 0; i < pre.length; i++) {
             googLiterals[i] = getInternalVar(pre[i]);
         }
-        model.addBoolOr(new Literal[]{resultLiteral})
-                .onlyEnforceIf(googLiterals);
+        Constraint implication = model.addBoolOr(new Literal[]{resultLiteral});
+        implication.onlyEnforceIf(googLiterals);
+        enforceInScope(implication);
     }
 
     @Override
@@ -41,16 +72,75 @@ public class GoogleModel implements SatModel {
     }
 
     @Override
-    public Set<Integer> solve() {
+    public void push() {
+        scopes.add(model.newBoolVar("scope_" + scopes.size()));
+    }
+
+    @Override
+    public void pop() {
+        if (scopes.isEmpty()) {
+            throw new IllegalStateException("pop() without a matching push()");
+        }
+        Literal scope = scopes.remove(scopes.size() - 1);
+        model.addBoolOr(new Literal[]{scope.not()});
+    }
+
+    @Override
+    public SatAssignment solve(int[] assumptions) {
+        Literal[] assumed = new Literal[scopes.size() + assumptions.length];
+        for (int i = 0; i < scopes.size(); i++) {
+            assumed[i] = scopes.get(i);
+        }
+        for (int i = 0; i < assumptions.length; i++) {
+            assumed[scopes.size() + i] = getInternalVar(assumptions[i]);
+        }
+        model.clearAssumptions();
+        model.addAssumptions(assumed);
+        try {
+            return solveModel();
+        } finally {
+            model.clearAssumptions();
+        }
+    }
+
+    static CpSolver newCpSolver(SolverParameters parameters) {
         CpSolver cpSolver = new CpSolver();
-        CpSolverStatus status = cpSolver.solve(model);
+        SatParameters.Builder cpParameters = cpSolver.getParameters();
+        if (parameters.numWorkers() > 0) {
+            cpParameters.setNumWorkers(parameters.numWorkers());
+        }
+        if (parameters.maxTimeInSeconds() > 0) {
+            cpParameters.setMaxTimeInSeconds(parameters.maxTimeInSeconds());
+        }
+        if (parameters.randomSeed() != 0) {
+            cpParameters.setRandomSeed(parameters.randomSeed());
+        }
+        cpParameters.setLogSearchProgress(parameters.logSearchProgress())
+                .setCpModelPresolve(parameters.presolve());
+        return cpSolver;
+    }
+
+    private SatAssignment solveModel() {
+        CpSolver cpSolver = newCpSolver(parameters);
+        provedUnsat = false;
+        if (!guard.start(cpSolver)) {
+            return null;
+        }
+        CpSolverStatus status;
+        try {
+            status = cpSolver.solve(model);
+        } finally {
+            guard.finish();
+        }
+        provedUnsat = status == CpSolverStatus.INFEASIBLE;
+        if (status == CpSolverStatus.UNKNOWN) {
+            System.out.println("CP-SAT stopped without an answer, time limit reached?");
+        }
         if (status == CpSolverStatus.OPTIMAL || status == CpSolverStatus.FEASIBLE) {
-            Set<Integer> trueValues = new HashSet<>();
+            SatAssignment trueValues = new SatAssignment(variables.size());
             for (int i = 1; i < variables.size() + 1; i++) {
-                if (cpSolver.booleanValue(getInternalVar(i))) {
-                    trueValues.add(i);
-                } else {
-                    trueValues.add(-i);
+                if (cpSolver.booleanValue(variables.get(i - 1))) {
+                    trueValues.set(i);
                 }
             }
             return trueValues;
@@ -59,13 +149,59 @@ public class GoogleModel implements SatModel {
         }
     }
 
+    @Override
+    public void addAllowedAssignments(int[] variables, int[][] tuples) {
+        if (!scopes.isEmpty()) {
+            // Tables don't take enforcement literals, clauses do.
+            IncrementalSatModel.super.addAllowedAssignments(variables, tuples);
+            return;
+        }
+        BoolVar[] tableVars = new BoolVar[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            tableVars[i] = this.variables.get(variables[i] - 1);
+        }
+        TableConstraint table = model.addAllowedAssignments(tableVars);
+        table.addTuples(tuples);
+    }
+
+    /**
+     * Followed as is by the fixed search worker, other workers only use it as a hint.
+     */
+    @Override
+    public void addDecisionStrategy(int[] variables, BranchValue value) {
+        BoolVar[] decisionVars = new BoolVar[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            decisionVars[i] = this.variables.get(variables[i] - 1);
+        }
+        model.addDecisionStrategy(decisionVars,
+                DecisionStrategyProto.VariableSelectionStrategy.CHOOSE_FIRST,
+                value == BranchValue.TRUE_FIRST
+                        ? DecisionStrategyProto.DomainReductionStrategy.SELECT_MAX_VALUE
+                        : DecisionStrategyProto.DomainReductionStrategy.SELECT_MIN_VALUE);
+    }
+
+    @Override
+    public boolean provedUnsat() {
+        return provedUnsat;
+    }
+
+    @Override
+    public void stopSearch() {
+        guard.stop();
+    }
+
     @Override
     public void addExactly(int[] selectCell, int sum) {
         Literal[] literals = new Literal[selectCell.length];
         for (int i = 0; i < literals.length; i++) {
             literals[i] = getInternalVar(selectCell[i]);
         }
-        model.addEquality(LinearExpr.sum(literals), sum);
+        enforceInScope(model.addEquality(LinearExpr.sum(literals), sum));
+    }
+
+    @Override
+    public void addAtMost(int[] literals, int k) {
+        enforceInScope(model.addLessOrEqual(LinearExpr.sum(getInternalLiterals(literals)), k));
     }
 
     public Literal[] getInternalLiterals(int[] literals) {
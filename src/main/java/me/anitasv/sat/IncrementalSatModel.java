@@ -0,0 +1,35 @@
+package me.anitasv.sat;
+
+/**
+ * A model which can be solved more than once, with constraints added in
+ * between solves, under assumptions, and within scopes that can be dropped
+ * later. What was built, and whatever the backend learnt, is reused.
+ */
+public interface IncrementalSatModel extends SatModel {
+
+    /**
+     * Solves with all the given literals assumed true. Assumptions only
+     * hold for this call.
+     *
+     * @param assumptions list of positive and negative integers.
+     * @return value of all variables, or null if there is no solution under
+     * these assumptions.
+     */
+    SatAssignment solve(int[] assumptions);
+
+    /**
+     * Opens a scope, constraints added from now on are dropped by the
+     * matching pop(). Scopes nest.
+     */
+    void push();
+
+    /**
+     * Drops every constraint added since the matching push().
+     */
+    void pop();
+
+    @Override
+    default SatAssignment solve() {
+        return solve(new int[0]);
+    }
+}
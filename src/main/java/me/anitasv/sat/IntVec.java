@@ -0,0 +1,66 @@
+package me.anitasv.sat;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints.
+ */
+final class IntVec {
+
+    private int[] data;
+    private int size;
+
+    IntVec() {
+        this(4);
+    }
+
+    IntVec(int capacity) {
+        this.data = new int[Math.max(capacity, 1)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int i) {
+        return data[i];
+    }
+
+    void set(int i, int value) {
+        data[i] = value;
+    }
+
+    void push(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size++] = value;
+    }
+
+    int pop() {
+        return data[--size];
+    }
+
+    int last() {
+        return data[size - 1];
+    }
+
+    /**
+     * Drops everything at and after index size.
+     */
+    void shrink(int size) {
+        this.size = size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
@@ -0,0 +1,208 @@
+package me.anitasv.sat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Races several backends on the same problem. Formulation happens once, every
+ * constraint is handed to each backend as it gets added. solve() runs all of
+ * them concurrently, the first to answer wins and the rest are stopped. An
+ * answer is a solution or a proof there is none, a backend that gives up
+ * without one, say on its time limit, leaves the others to it.
+ *
+ * Backends number their variables differently, as some encodings add
+ * auxiliary variables, so each has its own map from portfolio variables.
+ */
+public class PortfolioModel implements SatModel {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<SatModel> models = new ArrayList<>();
+    // variableMaps.get(m).get(v - 1) is the variable of model m for portfolio variable v.
+    private final List<IntVec> variableMaps = new ArrayList<>();
+    private int numVariables = 0;
+    private boolean provedUnsat = false;
+
+    /**
+     * @param models fresh models by name, the name is only used for reporting.
+     */
+    public PortfolioModel(Map<String, SatModel> models) {
+        if (models.isEmpty()) {
+            throw new IllegalArgumentException("Portfolio needs at least one model");
+        }
+        for (Map.Entry<String, SatModel> entry : models.entrySet()) {
+            names.add(entry.getKey());
+            this.models.add(entry.getValue());
+            variableMaps.add(new IntVec());
+        }
+    }
+
+    private int[] translate(int m, int[] literals) {
+        IntVec variableMap = variableMaps.get(m);
+        int[] translated = new int[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            translated[i] = translate(variableMap, literals[i]);
+        }
+        return translated;
+    }
+
+    private static int translate(IntVec variableMap, int literal) {
+        return literal > 0
+                ? variableMap.get(literal - 1)
+                : -variableMap.get(-literal - 1);
+    }
+
+    @Override
+    public int newVariable(String name) {
+        for (int m = 0; m < models.size(); m++) {
+            variableMaps.get(m).push(models.get(m).newVariable(name));
+        }
+        return ++numVariables;
+    }
+
+    @Override
+    public void addBoolOr(int[] literals) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addBoolOr(translate(m, literals));
+        }
+    }
+
+    @Override
+    public void addBoolAndImplies(int[] literals, int literal) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addBoolAndImplies(translate(m, literals),
+                    translate(variableMaps.get(m), literal));
+        }
+    }
+
+    @Override
+    public void addExactlyOne(int[] literals) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addExactlyOne(translate(m, literals));
+        }
+    }
+
+    @Override
+    public void addExactly(int[] selectCell, int sum) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addExactly(translate(m, selectCell), sum);
+        }
+    }
+
+    @Override
+    public void addAtMost(int[] literals, int k) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addAtMost(translate(m, literals), k);
+        }
+    }
+
+    @Override
+    public void addAllowedAssignments(int[] variables, int[][] tuples) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addAllowedAssignments(translate(m, variables), tuples);
+        }
+    }
+
+    @Override
+    public void addDecisionStrategy(int[] variables, BranchValue value) {
+        for (int m = 0; m < models.size(); m++) {
+            models.get(m).addDecisionStrategy(translate(m, variables), value);
+        }
+    }
+
+    private record Result(int model, SatAssignment assignment) {
+    }
+
+    @Override
+    public SatAssignment solve() {
+        ExecutorService executor = Executors.newFixedThreadPool(models.size(), runnable -> {
+            Thread thread = new Thread(runnable, "portfolio-solver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Result> race = new ExecutorCompletionService<>(executor);
+        // Which model each future solves, to know which ones ended when one throws.
+        Map<Future<Result>, Integer> solving = new HashMap<>();
+        for (int m = 0; m < models.size(); m++) {
+            int model = m;
+            solving.put(race.submit(() -> new Result(model, models.get(model).solve())), model);
+        }
+
+        // Only an assignment or a proof wins, a solver that gave up leaves the rest racing.
+        Result winner = null;
+        boolean[] finished = new boolean[models.size()];
+        int failures = 0;
+        RuntimeException failure = new RuntimeException("Every solver in the portfolio failed");
+        provedUnsat = false;
+        try {
+            for (int i = 0; i < models.size() && winner == null; i++) {
+                try {
+                    Future<Result> done = race.take();
+                    finished[solving.get(done)] = true;
+                    Result result = done.get();
+                    if (result.assignment() != null || models.get(result.model()).provedUnsat()) {
+                        winner = result;
+                    } else {
+                        System.out.println("Portfolio solver gave up: " + names.get(result.model()));
+                    }
+                } catch (ExecutionException e) {
+                    System.out.println("Portfolio solver failed: " + e.getCause());
+                    failure.addSuppressed(e.getCause());
+                    failures++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            // Stopping a solver that is done would make its next solve give up.
+            for (int m = 0; m < models.size(); m++) {
+                if (!finished[m]) {
+                    models.get(m).stopSearch();
+                }
+            }
+            executor.shutdown();
+        }
+        if (winner == null && failures == models.size()) {
+            throw failure;
+        }
+        if (winner == null) {
+            System.out.println("No solver in the portfolio found an answer");
+            return null;
+        }
+        System.out.println("Portfolio won by: " + names.get(winner.model()));
+        provedUnsat = winner.assignment() == null;
+
+        SatAssignment assignment = winner.assignment();
+        if (assignment == null) {
+            return null;
+        }
+        IntVec variableMap = variableMaps.get(winner.model());
+        SatAssignment translated = new SatAssignment(numVariables);
+        for (int v = 1; v <= numVariables; v++) {
+            if (assignment.isTrue(variableMap.get(v - 1))) {
+                translated.set(v);
+            }
+        }
+        return translated;
+    }
+
+    @Override
+    public boolean provedUnsat() {
+        return provedUnsat;
+    }
+
+    @Override
+    public void stopSearch() {
+        for (SatModel model : models) {
+            model.stopSearch();
+        }
+    }
+}
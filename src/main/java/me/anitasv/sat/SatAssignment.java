@@ -0,0 +1,56 @@
+package me.anitasv.sat;
+
+/**
+ * Value of every variable in a solution, one bit per variable.
+ */
+public final class SatAssignment {
+
+    private final int numVariables;
+    private final long[] bits;
+
+    /**
+     * All variables start as false.
+     *
+     * @param numVariables variables are 1 to numVariables both inclusive.
+     */
+    public SatAssignment(int numVariables) {
+        this.numVariables = numVariables;
+        this.bits = new long[(numVariables >> 6) + 1];
+    }
+
+    public int numVariables() {
+        return numVariables;
+    }
+
+    /**
+     * Makes the literal true, i.e. sets the variable for a positive literal
+     * and clears it for a negative one.
+     */
+    public void set(int literal) {
+        int variable = checkedVariable(literal);
+        if (literal > 0) {
+            bits[variable >> 6] |= 1L << variable;
+        } else {
+            bits[variable >> 6] &= ~(1L << variable);
+        }
+    }
+
+    /**
+     * @param literal positive or negative integer.
+     * @return true iff the literal is satisfied by this assignment.
+     */
+    public boolean isTrue(int literal) {
+        int variable = checkedVariable(literal);
+        boolean value = (bits[variable >> 6] & (1L << variable)) != 0;
+        return literal > 0 == value;
+    }
+
+    private int checkedVariable(int literal) {
+        int variable = Math.abs(literal);
+        if (variable == 0 || variable > numVariables) {
+            throw new IllegalArgumentException("literal " + literal +
+                    " out of range 1 <= |literal| <= " + numVariables);
+        }
+        return variable;
+    }
+}
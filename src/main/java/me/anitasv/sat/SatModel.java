@@ -1,6 +1,7 @@
 package me.anitasv.sat;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 public interface SatModel {
 
@@ -36,13 +37,94 @@ public interface SatModel {
 
 
     /**
-     * Returns the solution as a set.
-     * If integer belongs to this set that variable has value true.
-     * Does not support looking up be negative numbers.
+     * Returns the solution as an assignment which can be looked up by
+     * positive or negative literals.
      *
-     * @return set of true variables.
+     * @return value of all variables, or null if there is no solution.
      */
-    Set<Integer> solve();
+    SatAssignment solve();
+
+    /**
+     * Adds a constraint that the variables take the values of one of the
+     * tuples, 0 for false and 1 for true.
+     *
+     * By default each tuple gets a variable which implies its values, at
+     * least one tuple is chosen, and every value a variable takes needs one
+     * of the tuples with it. Unit propagation then removes values no tuple
+     * supports, like a native table constraint would.
+     *
+     * @param variables positive integers.
+     * @param tuples    allowed values, each as long as variables.
+     */
+    default void addAllowedAssignments(int[] variables, int[][] tuples) {
+        int[] rows = new int[tuples.length];
+        for (int t = 0; t < tuples.length; t++) {
+            rows[t] = newVariable("tuple_" + t);
+            for (int i = 0; i < variables.length; i++) {
+                int literal = tuples[t][i] == 1 ? variables[i] : -variables[i];
+                addBoolOr(new int[]{-rows[t], literal});
+            }
+        }
+        addBoolOr(rows);
+        for (int i = 0; i < variables.length; i++) {
+            for (int value = 0; value <= 1; value++) {
+                List<Integer> support = new ArrayList<>();
+                support.add(value == 1 ? -variables[i] : variables[i]);
+                for (int t = 0; t < tuples.length; t++) {
+                    if (tuples[t][i] == value) {
+                        support.add(rows[t]);
+                    }
+                }
+                addBoolOr(support.stream().mapToInt(x -> x).toArray());
+            }
+        }
+    }
+
+    /**
+     * Suggests deciding on the variables in the given order before any other,
+     * trying value first. Backends may follow it loosely or ignore it.
+     *
+     * @param variables positive integers.
+     */
+    default void addDecisionStrategy(int[] variables, BranchValue value) {
+    }
+
+    /**
+     * Asks a solve() running on another thread to give up, it then returns
+     * null or throws. With no solve running the next one gives up right
+     * away. A stop ends one solve, the model can be solved again after it.
+     * Does nothing in backends which can't be interrupted.
+     */
+    default void stopSearch() {
+    }
+
+    /**
+     * Whether the last solve() returned null because there is no solution,
+     * rather than because it gave up: stopped, out of time, or a solver that
+     * failed. Backends which can't tell say false.
+     */
+    default boolean provedUnsat() {
+        return false;
+    }
 
     void addExactly(int[] selectCell, int sum);
+
+    /**
+     * Adds a constraint that at most k of the literals are true.
+     *
+     * By default these are topped up by k fresh variables to exactly k,
+     * backends which can count natively should override it, as the fresh
+     * variables are interchangeable and a search may try them all.
+     */
+    default void addAtMost(int[] literals, int k) {
+        if (k >= literals.length) {
+            return;
+        }
+        int[] padded = new int[literals.length + Math.max(k, 0)];
+        System.arraycopy(literals, 0, padded, 0, literals.length);
+        for (int i = literals.length; i < padded.length; i++) {
+            padded[i] = newVariable("at_most_" + (i - literals.length));
+        }
+        addExactly(padded, k);
+    }
 }
@@ -0,0 +1,178 @@
+package me.anitasv.sat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Parses what a DIMACS SAT solver reports back. Both formats are understood:
+ *
+ * MiniSAT output file:
+ *   SAT
+ *   1 -2 3 0
+ *
+ * SAT competition output on stdout:
+ *   c comments
+ *   s SATISFIABLE
+ *   v 1 -2
+ *   v 3 0
+ *
+ * Literals are decoded straight from the bytes into a {@link SatAssignment}.
+ */
+final class SolverOutput {
+
+    enum Status {
+        SATISFIABLE,
+        UNSATISFIABLE,
+        UNKNOWN
+    }
+
+    /**
+     * What the solver reported, with the solution when it found one.
+     */
+    record Result(Status status, SatAssignment assignment) {
+    }
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int pos;
+
+    private SolverOutput(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.pos = buffer.position();
+    }
+
+    /**
+     * Memory maps the file and parses it.
+     */
+    static Result read(File file, int numVariables) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " too large to parse: " + size + " bytes");
+            }
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), numVariables);
+        }
+    }
+
+    static Result parse(ByteBuffer buffer, int numVariables) {
+        return new SolverOutput(buffer).parse(numVariables);
+    }
+
+    private Result parse(int numVariables) {
+        SatAssignment assignment = new SatAssignment(numVariables);
+        Status status = Status.UNKNOWN;
+
+        while (skipBlanks()) {
+            byte c = buffer.get(pos);
+            if (c == '\n') {
+                pos++;
+            } else if (c == '-' || isDigit(c)) {
+                // MiniSAT literal line.
+                readLiterals(assignment);
+            } else if (c == 'v' && isBlank(pos + 1)) {
+                pos++;
+                readLiterals(assignment);
+            } else if (c == 's' && isBlank(pos + 1)) {
+                pos++;
+                if (skipBlanks()) {
+                    status = readStatus(status);
+                }
+            } else if (c == 'c' && isBlank(pos + 1)) {
+                skipLine();
+            } else {
+                // Anything else, like statistics MiniSAT prints on stdout, is skipped.
+                status = readStatus(status);
+            }
+        }
+
+        return new Result(status, status == Status.SATISFIABLE ? assignment : null);
+    }
+
+    private Status readStatus(Status current) {
+        int start = pos;
+        while (!isBlank(pos)) {
+            pos++;
+        }
+        String word = wordAt(start, pos);
+        skipLine();
+        return switch (word) {
+            case "SAT", "SATISFIABLE" -> Status.SATISFIABLE;
+            case "UNSAT", "UNSATISFIABLE" -> Status.UNSATISFIABLE;
+            case "INDET", "UNKNOWN" -> Status.UNKNOWN;
+            default -> current;
+        };
+    }
+
+    private void readLiterals(SatAssignment assignment) {
+        while (skipBlanks() && buffer.get(pos) != '\n') {
+            boolean negative = false;
+            if (buffer.get(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+            int value = 0;
+            int digits = 0;
+            while (pos < limit && isDigit(buffer.get(pos))) {
+                value = value * 10 + (buffer.get(pos) - '0');
+                pos++;
+                digits++;
+            }
+            if (digits == 0) {
+                throw new IllegalStateException("Unexpected character in solver output at byte " + pos);
+            }
+            if (value != 0) {
+                assignment.set(negative ? -value : value);
+            }
+        }
+    }
+
+    /**
+     * Skips spaces, tabs and carriage returns but not new lines.
+     *
+     * @return false at end of input.
+     */
+    private boolean skipBlanks() {
+        while (pos < limit) {
+            byte c = buffer.get(pos);
+            if (c == ' ' || c == '\t' || c == '\r') {
+                pos++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipLine() {
+        while (pos < limit && buffer.get(pos) != '\n') {
+            pos++;
+        }
+        if (pos < limit) {
+            pos++;
+        }
+    }
+
+    private boolean isBlank(int index) {
+        if (index >= limit) {
+            return true;
+        }
+        byte c = buffer.get(index);
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private String wordAt(int start, int end) {
+        StringBuilder word = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            word.append((char) buffer.get(i));
+        }
+        return word.toString();
+    }
+}
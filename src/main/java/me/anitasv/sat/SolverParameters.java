@@ -0,0 +1,60 @@
+package me.anitasv.sat;
+
+/**
+ * Tuning for a solve, to trade latency against cores used per job.
+ *
+ * @param numWorkers        parallel search workers, 0 leaves it to the solver.
+ * @param maxTimeInSeconds  give up after this long, 0 for no limit.
+ * @param randomSeed        seed for randomized search decisions, 0 leaves it to the solver.
+ * @param logSearchProgress print the solver's search log.
+ * @param presolve          simplify the model before searching.
+ */
+public record SolverParameters(int numWorkers,
+                               double maxTimeInSeconds,
+                               int randomSeed,
+                               boolean logSearchProgress,
+                               boolean presolve) {
+
+    public static final SolverParameters DEFAULT =
+            new SolverParameters(0, 0, 0, false, true);
+
+    public SolverParameters {
+        if (numWorkers < 0) {
+            throw new IllegalArgumentException("numWorkers must not be negative: " + numWorkers);
+        }
+        if (maxTimeInSeconds < 0) {
+            throw new IllegalArgumentException("maxTimeInSeconds must not be negative: " + maxTimeInSeconds);
+        }
+    }
+
+    public SolverParameters withNumWorkers(int numWorkers) {
+        return new SolverParameters(numWorkers, maxTimeInSeconds, randomSeed, logSearchProgress, presolve);
+    }
+
+    public SolverParameters withMaxTimeInSeconds(double maxTimeInSeconds) {
+        return new SolverParameters(numWorkers, maxTimeInSeconds, randomSeed, logSearchProgress, presolve);
+    }
+
+    public SolverParameters withRandomSeed(int randomSeed) {
+        return new SolverParameters(numWorkers, maxTimeInSeconds, randomSeed, logSearchProgress, presolve);
+    }
+
+    public SolverParameters withLogSearchProgress(boolean logSearchProgress) {
+        return new SolverParameters(numWorkers, maxTimeInSeconds, randomSeed, logSearchProgress, presolve);
+    }
+
+    public SolverParameters withPresolve(boolean presolve) {
+        return new SolverParameters(numWorkers, maxTimeInSeconds, randomSeed, logSearchProgress, presolve);
+    }
+
+    /**
+     * For one of jobs solves running at once: workers left to the solver
+     * become an even share of the cores, at least 1.
+     */
+    public SolverParameters sharedBy(int jobs) {
+        if (numWorkers != 0) {
+            return this;
+        }
+        return withNumWorkers(Math.max(1, Runtime.getRuntime().availableProcessors() / jobs));
+    }
+}
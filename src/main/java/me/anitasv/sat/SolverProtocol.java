@@ -0,0 +1,19 @@
+package me.anitasv.sat;
+
+/**
+ * How an external DIMACS SAT solver is invoked, and where it reports the result.
+ */
+public enum SolverProtocol {
+
+    /**
+     * `solver input.cnf output`, result is written to the output file.
+     * MiniSAT and Glucose work this way.
+     */
+    MINISAT,
+
+    /**
+     * `solver input.cnf`, result is printed on stdout as s and v lines.
+     * SAT competition solvers like Kissat and CaDiCaL work this way.
+     */
+    COMPETITION
+}
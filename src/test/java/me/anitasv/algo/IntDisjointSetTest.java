@@ -0,0 +1,134 @@
+package me.anitasv.algo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks both disjoint sets against a naive partition, which relabels a
+ * whole set on every union.
+ */
+class IntDisjointSetTest {
+
+    private static final int SIZE = 200;
+    private static final int UNIONS = 300;
+
+    /**
+     * label[x] is the set of x, a union moves every element of one set to the other.
+     */
+    private static boolean naiveUnion(int[] label, int a, int b) {
+        int from = label[a];
+        int to = label[b];
+        if (from == to) {
+            return false;
+        }
+        for (int x = 0; x < label.length; x++) {
+            if (label[x] == from) {
+                label[x] = to;
+            }
+        }
+        return true;
+    }
+
+    private static int naiveSets(int[] label) {
+        return (int) Arrays.stream(label).distinct().count();
+    }
+
+    @Test
+    void intDisjointSetMatchesNaive() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 20; trial++) {
+            IntDisjointSet sets = new IntDisjointSet(SIZE);
+            int[] label = new int[SIZE];
+            Arrays.setAll(label, x -> x);
+            for (int i = 0; i < UNIONS; i++) {
+                int a = random.nextInt(SIZE);
+                int b = random.nextInt(SIZE);
+                assertEquals(naiveUnion(label, a, b), sets.union(a, b));
+                assertEquals(naiveSets(label), sets.sets());
+            }
+            for (int a = 0; a < SIZE; a++) {
+                for (int b = 0; b < SIZE; b++) {
+                    assertEquals(label[a] == label[b], sets.connected(a, b));
+                }
+            }
+        }
+    }
+
+    @Test
+    void concurrentDisjointSetMatchesNaive() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 20; trial++) {
+            ConcurrentIntDisjointSet sets = new ConcurrentIntDisjointSet(SIZE);
+            int[] label = new int[SIZE];
+            Arrays.setAll(label, x -> x);
+            for (int i = 0; i < UNIONS; i++) {
+                int a = random.nextInt(SIZE);
+                int b = random.nextInt(SIZE);
+                assertEquals(naiveUnion(label, a, b), sets.union(a, b));
+            }
+            for (int a = 0; a < SIZE; a++) {
+                for (int b = 0; b < SIZE; b++) {
+                    assertEquals(label[a] == label[b], sets.connected(a, b));
+                }
+            }
+        }
+    }
+
+    @Test
+    void concurrentUnionsEndInTheSamePartition() throws Exception {
+        Random random = new Random(13);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int trial = 0; trial < 20; trial++) {
+                int[][] pairs = new int[UNIONS][];
+                for (int i = 0; i < UNIONS; i++) {
+                    pairs[i] = new int[]{random.nextInt(SIZE), random.nextInt(SIZE)};
+                }
+                int[] label = new int[SIZE];
+                Arrays.setAll(label, x -> x);
+                int merges = 0;
+                for (int[] pair : pairs) {
+                    merges += naiveUnion(label, pair[0], pair[1]) ? 1 : 0;
+                }
+
+                // Each thread unions every pair from its own offset, so they race on all of them.
+                ConcurrentIntDisjointSet sets = new ConcurrentIntDisjointSet(SIZE);
+                List<Future<Integer>> linked = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int offset = t * UNIONS / threads;
+                    linked.add(executor.submit(() -> {
+                        int count = 0;
+                        for (int i = 0; i < UNIONS; i++) {
+                            int[] pair = pairs[(offset + i) % UNIONS];
+                            count += sets.union(pair[0], pair[1]) ? 1 : 0;
+                        }
+                        return count;
+                    }));
+                }
+                int total = 0;
+                for (Future<Integer> count : linked) {
+                    total += count.get();
+                }
+                // Every merge is done by exactly one thread.
+                assertEquals(merges, total);
+                for (int a = 0; a < SIZE; a++) {
+                    for (int b = 0; b < SIZE; b++) {
+                        assertEquals(label[a] == label[b], sets.connected(a, b));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
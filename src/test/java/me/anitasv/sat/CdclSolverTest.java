@@ -0,0 +1,145 @@
+package me.anitasv.sat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cross-checks the CDCL solver against enumerating every assignment, on
+ * random small models of clauses, implications and cardinality constraints,
+ * solved under random assumptions with scopes pushed and popped in between.
+ */
+class CdclSolverTest {
+
+    private static final int TRIALS = 300;
+    private static final int STEPS = 40;
+
+    /**
+     * A constraint over variables 1 .. n, checked against an assignment
+     * given as bits, bit v - 1 set when v is true.
+     */
+    private interface Constraint {
+        boolean holds(long bits);
+    }
+
+    private static boolean isTrue(long bits, int literal) {
+        boolean value = (bits >> (Math.abs(literal) - 1) & 1) == 1;
+        return literal > 0 ? value : !value;
+    }
+
+    private static int countTrue(long bits, int[] literals) {
+        int count = 0;
+        for (int literal : literals) {
+            count += isTrue(bits, literal) ? 1 : 0;
+        }
+        return count;
+    }
+
+    private static int[] randomLiterals(Random random, int n, int size) {
+        int[] literals = new int[size];
+        for (int i = 0; i < size; i++) {
+            int v = 1 + random.nextInt(n);
+            literals[i] = random.nextBoolean() ? v : -v;
+        }
+        return literals;
+    }
+
+    /**
+     * Whether some assignment of the n variables satisfies every constraint
+     * and assumption.
+     */
+    private static boolean satisfiable(int n, List<List<Constraint>> scopes, int[] assumptions) {
+        for (long bits = 0; bits < 1L << n; bits++) {
+            if (satisfies(bits, scopes, assumptions)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean satisfies(long bits, List<List<Constraint>> scopes, int[] assumptions) {
+        for (int assumption : assumptions) {
+            if (!isTrue(bits, assumption)) {
+                return false;
+            }
+        }
+        for (List<Constraint> scope : scopes) {
+            for (Constraint constraint : scope) {
+                if (!constraint.holds(bits)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void agreesWithEnumeration() {
+        Random random = new Random(20240611);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            int n = 3 + random.nextInt(8);
+            CdclModel model = new CdclModel();
+            for (int v = 1; v <= n; v++) {
+                assertEquals(v, model.newVariable("x" + v));
+            }
+            // scopes.get(0) is never popped, each push() adds one.
+            List<List<Constraint>> scopes = new ArrayList<>();
+            scopes.add(new ArrayList<>());
+
+            for (int step = 0; step < STEPS; step++) {
+                List<Constraint> scope = scopes.get(scopes.size() - 1);
+                int op = random.nextInt(10);
+                if (op <= 2) {
+                    int[] clause = randomLiterals(random, n, 1 + random.nextInt(3));
+                    model.addBoolOr(clause);
+                    scope.add(bits -> countTrue(bits, clause) > 0);
+                } else if (op == 3) {
+                    int[] body = randomLiterals(random, n, 1 + random.nextInt(2));
+                    int head = randomLiterals(random, n, 1)[0];
+                    model.addBoolAndImplies(body, head);
+                    scope.add(bits -> countTrue(bits, body) < body.length || isTrue(bits, head));
+                } else if (op == 4) {
+                    int[] literals = randomLiterals(random, n, 1 + random.nextInt(n));
+                    int k = random.nextInt(literals.length + 1);
+                    model.addAtMost(literals, k);
+                    scope.add(bits -> countTrue(bits, literals) <= k);
+                } else if (op == 5) {
+                    int[] literals = randomLiterals(random, n, 1 + random.nextInt(n));
+                    int k = random.nextInt(literals.length + 1);
+                    model.addExactly(literals, k);
+                    scope.add(bits -> countTrue(bits, literals) == k);
+                } else if (op == 6) {
+                    int[] literals = randomLiterals(random, n, 1 + random.nextInt(4));
+                    model.addExactlyOne(literals);
+                    scope.add(bits -> countTrue(bits, literals) == 1);
+                } else if (op == 7) {
+                    model.push();
+                    scopes.add(new ArrayList<>());
+                } else if (op == 8 && scopes.size() > 1) {
+                    model.pop();
+                    scopes.remove(scopes.size() - 1);
+                } else {
+                    int[] assumptions = randomLiterals(random, n, random.nextInt(4));
+                    SatAssignment solution = model.solve(assumptions);
+                    boolean expected = satisfiable(n, scopes, assumptions);
+                    String where = "trial " + trial + ", step " + step;
+                    assertEquals(expected, solution != null, where);
+                    if (solution != null) {
+                        long bits = 0;
+                        for (int v = 1; v <= n; v++) {
+                            bits |= solution.isTrue(v) ? 1L << (v - 1) : 0;
+                        }
+                        assertTrue(satisfies(bits, scopes, assumptions), where);
+                    } else {
+                        assertTrue(model.provedUnsat(), where);
+                    }
+                }
+            }
+        }
+    }
+}